@@ -0,0 +1,87 @@
+package bgpvis;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bgpvis.util.Metrics;
+
+/**
+ * Stages of Task 4 on the relationship graph of Task 3. Each stage runs on
+ * the output of the stages before it, which are computed once in setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsClassifierBenchmark {
+	private static final int TRANSIT_COUNT_THRESHOLD = 1;
+	private static final double DEGREE_SIZE_RATIO = 60;
+	private static final int PRUNING_ROUNDS = 2;
+
+	/**
+	 * Number of AS paths in the corpus
+	 */
+	@Param({ "10000", "100000" })
+	public int size;
+
+	private AsDictionary dictionary;
+	private AsRelationships relationships;
+	private BitSet ases;
+	private BitSet cores;
+	private BitSet denseCores;
+
+	@Setup
+	public void setUp() {
+		List<String> lines = BenchmarkCorpus.asPaths(size);
+		dictionary = new AsDictionary();
+		AsPathCorpus asPaths = new AsPathCorpus();
+		for (String line : lines) {
+			asPaths.add(line, dictionary);
+		}
+		AsAdjacency adjacency = AsAdjacency.of(asPaths, dictionary.size());
+		relationships = BenchmarkCorpus.relationships(asPaths, adjacency,
+				TRANSIT_COUNT_THRESHOLD, DEGREE_SIZE_RATIO);
+		ases = AsClassifier.ases(relationships);
+		cores = (BitSet) ases.clone();
+		AsGraph.prune(relationships, cores, PRUNING_ROUNDS);
+		denseCores = AsGraph.denseCores(relationships, cores);
+	}
+
+	@Benchmark
+	public int[] prune() {
+		return AsGraph.prune(relationships, (BitSet) ases.clone(),
+				PRUNING_ROUNDS);
+	}
+
+	@Benchmark
+	public BitSet denseCores() {
+		return AsGraph.denseCores(relationships, cores);
+	}
+
+	@Benchmark
+	public BitSet transitCores() {
+		return AsGraph.transitCores(relationships, cores, denseCores);
+	}
+
+	@Benchmark
+	public BitSet[] classify() {
+		return AsClassifier.classify(relationships, (BitSet) ases.clone(),
+				dictionary, PRUNING_ROUNDS, new Metrics("classify"));
+	}
+
+}
@@ -0,0 +1,96 @@
+package bgpvis;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Phases of Task 3 on the int-keyed AS graph. Each phase runs on the output
+ * of the phases before it, which are computed once in setup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsGraphBenchmark {
+	private static final int TRANSIT_COUNT_THRESHOLD = 1;
+
+	/**
+	 * Number of AS paths in the corpus
+	 */
+	@Param({ "10000", "100000" })
+	public int size;
+
+	private AsDictionary dictionary;
+	private AsPathCorpus asPaths;
+	private AsAdjacency adjacency;
+	private int[] nodeDegreeByAs;
+	private int[] transitCustomerToProvider;
+	private AsRelationships relationships;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp() {
+		List<String> lines = BenchmarkCorpus.asPaths(size);
+		dictionary = new AsDictionary();
+		asPaths = new AsPathCorpus();
+		for (String line : lines) {
+			asPaths.add(line, dictionary);
+		}
+		adjacency = AsAdjacency.of(asPaths, dictionary.size());
+		nodeDegreeByAs = AsGraph.nodeDegreeByAs(adjacency);
+		asPaths.indexTopProviders(nodeDegreeByAs);
+		transitCustomerToProvider = AsGraph.countTransitRelationship(asPaths,
+				adjacency);
+		relationships = AsGraph.relationships(adjacency,
+				transitCustomerToProvider, TRANSIT_COUNT_THRESHOLD);
+		pool = new ForkJoinPool();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public AsAdjacency adjacency() {
+		return AsAdjacency.of(asPaths, dictionary.size());
+	}
+
+	@Benchmark
+	public int[] countTransitRelationship() {
+		return AsGraph.countTransitRelationship(asPaths, adjacency);
+	}
+
+	@Benchmark
+	public int[] countTransitRelationshipParallel() {
+		return AsGraph.countTransitRelationship(asPaths, adjacency, pool);
+	}
+
+	@Benchmark
+	public AsRelationships relationships() {
+		return AsGraph.relationships(adjacency, transitCustomerToProvider,
+				TRANSIT_COUNT_THRESHOLD);
+	}
+
+	@Benchmark
+	public boolean[] nonPeers() {
+		return AsGraph.nonPeers(asPaths, nodeDegreeByAs, relationships);
+	}
+
+}
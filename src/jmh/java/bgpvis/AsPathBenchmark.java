@@ -0,0 +1,103 @@
+package bgpvis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bgpvis.util.StringUtil;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * String-based AS path operations of Task 1 and Task 2. Each operation runs
+ * once over every path of the corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsPathBenchmark {
+
+	/**
+	 * Number of AS paths in the corpus
+	 */
+	@Param({ "10000", "100000" })
+	public int size;
+
+	private List<String> lines;
+	private List<String> asPaths;
+	private List<List<String>> asLists;
+
+	@Setup
+	public void setUp() {
+		lines = BenchmarkCorpus.ribLines(size);
+		asPaths = BenchmarkCorpus.asPaths(size);
+		asLists = new ArrayList<List<String>>(size);
+		for (String asPath : asPaths) {
+			asLists.add(AsPath.asList(asPath));
+		}
+	}
+
+	@Benchmark
+	public void validate(Blackhole bh) {
+		for (String line : lines) {
+			bh.consume(AsPath.validate(line));
+		}
+	}
+
+	@Benchmark
+	public void isValid(Blackhole bh) {
+		for (String line : lines) {
+			bh.consume(AsPath.isValid(line));
+		}
+	}
+
+	@Benchmark
+	public void removeDuplicateAs(Blackhole bh) {
+		for (String asPath : asPaths) {
+			bh.consume(AsPath.removeDuplicateAs(asPath));
+		}
+	}
+
+	@Benchmark
+	public void asSet(Blackhole bh) {
+		for (String asPath : asPaths) {
+			bh.consume(AsPath.asSet(asPath));
+		}
+	}
+
+	@Benchmark
+	public void split(Blackhole bh) {
+		for (String asPath : asPaths) {
+			bh.consume(StringUtil.split(asPath, CharMatcher.WHITESPACE));
+		}
+	}
+
+	@Benchmark
+	public void join(Blackhole bh) {
+		for (List<String> asList : asLists) {
+			bh.consume(StringUtil.join(asList, " "));
+		}
+	}
+
+	@Benchmark
+	public Object neighboursByAs() {
+		return AsGraph.neighboursByAs(asPaths);
+	}
+
+}
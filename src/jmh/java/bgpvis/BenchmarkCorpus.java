@@ -0,0 +1,93 @@
+package bgpvis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import bgpvis.etl.RibGenerator;
+
+/**
+ * Synthetic AS paths for benchmarks, from {@link RibGenerator} with a fixed
+ * seed so that runs are comparable.
+ */
+final class BenchmarkCorpus {
+	private static final long SEED = 42;
+	private static final int MIN_ASES = 100;
+	private static final int PATHS_PER_AS = 8;
+	private static final int VANTAGE_POINTS = 12;
+	private static final double LINES_PER_ORIGIN = 70;
+	private static final String ASPATH_ATTRIBUTE = "ASPATH: ";
+
+	private BenchmarkCorpus() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	private static RibGenerator generator(int size) {
+		return new RibGenerator(Math.max(MIN_ASES, size / PATHS_PER_AS),
+				VANTAGE_POINTS, LINES_PER_ORIGIN, SEED);
+	}
+
+	/**
+	 * Returns unique AS paths without the ASPATH attribute name and without
+	 * AS sets, in Task 1 output format. Some paths have AS prepending.
+	 *
+	 * @param size
+	 *            number of AS paths
+	 * @return
+	 */
+	static List<String> asPaths(int size) {
+		RibGenerator generator = generator(size);
+		Set<String> ret = new LinkedHashSet<String>(size * 2);
+		String line;
+		while (ret.size() < size) {
+			line = generator.next();
+			if (line.indexOf('{') < 0) {
+				ret.add(line.substring(ASPATH_ATTRIBUTE.length()));
+			}
+		}
+		return new ArrayList<String>(ret);
+	}
+
+	/**
+	 * Returns RIB lines with the ASPATH attribute name, in RIB file format.
+	 * Lines repeat, as each prefix of an origin AS is seen by every vantage
+	 * point.
+	 *
+	 * @param size
+	 *            number of lines
+	 * @return
+	 */
+	static List<String> ribLines(int size) {
+		RibGenerator generator = generator(size);
+		List<String> ret = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			ret.add(generator.next());
+		}
+		return ret;
+	}
+
+	/**
+	 * Phases of Task 3 on the AS paths, without AsGraphAnnotator, which reads
+	 * its parameters from system properties.
+	 *
+	 * @param asPaths
+	 * @param adjacency
+	 * @param transitCountThreshold
+	 * @param degreeSizeRatio
+	 * @return
+	 */
+	static AsRelationships relationships(AsPathCorpus asPaths,
+			AsAdjacency adjacency, int transitCountThreshold,
+			double degreeSizeRatio) {
+		int[] nodeDegreeByAs = AsGraph.nodeDegreeByAs(adjacency);
+		asPaths.indexTopProviders(nodeDegreeByAs);
+		AsRelationships ret = AsGraph.relationships(adjacency,
+				AsGraph.countTransitRelationship(asPaths, adjacency),
+				transitCountThreshold);
+		AsGraph.peeringRelationships(asPaths, nodeDegreeByAs, ret,
+				AsGraph.nonPeers(asPaths, nodeDegreeByAs, ret), degreeSizeRatio);
+		return ret;
+	}
+
+}
@@ -0,0 +1,262 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * AS relationship graph of Task 3, with the AS dictionary, node degrees and
+ * transit counts that produced it.
+ * <p>
+ * The graph can be saved as a binary snapshot and opened again with memory
+ * mapping, so that Tasks 2 and 4 (and any other tool) start from the
+ * annotated graph without parsing text. The snapshot is a fixed header (magic
+ * number, version, number of ASes, number of directed edges and the
+ * parameters of the annotation), then one section per array in the order AS
+ * numbers, adjacency offsets, neighbours, node degrees, transit counts and
+ * relationship codes. Numbers are little endian, and each section is aligned
+ * to the size of its elements, so sections are bulk copied into arrays
+ * without decoding each value.
+ */
+public final class AnnotatedAsGraph {
+
+	/**
+	 * "BGPS" in ASCII
+	 */
+	private static final int MAGIC = 0x42475053;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	private final AsDictionary dictionary;
+	private final AsRelationships relationships;
+	private final int[] nodeDegreeByAs;
+	private final int[] transitCustomerToProvider;
+	private final int transitCountThreshold;
+	private final double degreeSizeRatio;
+
+	/**
+	 * @param dictionary
+	 * @param relationships
+	 * @param nodeDegreeByAs
+	 *            node degree of each AS, aligned to the AS id
+	 * @param transitCustomerToProvider
+	 *            transit count of each directed edge, aligned to the edge index
+	 * @param transitCountThreshold
+	 * @param degreeSizeRatio
+	 */
+	public AnnotatedAsGraph(AsDictionary dictionary,
+			AsRelationships relationships, int[] nodeDegreeByAs,
+			int[] transitCustomerToProvider, int transitCountThreshold,
+			double degreeSizeRatio) {
+		AsAdjacency adjacency = relationships.adjacency();
+		if (nodeDegreeByAs.length != adjacency.size()
+				|| transitCustomerToProvider.length != adjacency.edges()) {
+			throw new IllegalArgumentException(concat("Expected [",
+					adjacency.size(), "] node degrees and [",
+					adjacency.edges(), "] transit counts but found [",
+					nodeDegreeByAs.length, "] and [",
+					transitCustomerToProvider.length, "]"));
+		}
+		this.dictionary = dictionary;
+		this.relationships = relationships;
+		this.nodeDegreeByAs = nodeDegreeByAs;
+		this.transitCustomerToProvider = transitCustomerToProvider;
+		this.transitCountThreshold = transitCountThreshold;
+		this.degreeSizeRatio = degreeSizeRatio;
+	}
+
+	public AsDictionary dictionary() {
+		return dictionary;
+	}
+
+	public AsRelationships relationships() {
+		return relationships;
+	}
+
+	public AsAdjacency adjacency() {
+		return relationships.adjacency();
+	}
+
+	public int[] nodeDegreeByAs() {
+		return nodeDegreeByAs;
+	}
+
+	public int[] transitCustomerToProvider() {
+		return transitCustomerToProvider;
+	}
+
+	public int transitCountThreshold() {
+		return transitCountThreshold;
+	}
+
+	public double degreeSizeRatio() {
+		return degreeSizeRatio;
+	}
+
+	private static long size(int nAs, int nEdges) {
+		long ret = HEADER_SIZE;
+		ret += 8L * nAs;
+		ret += 4L * (nAs + 1);
+		ret += 4L * nEdges;
+		ret += 4L * nAs;
+		ret += 4L * nEdges;
+		ret += nEdges;
+		return ret;
+	}
+
+	/**
+	 * Save the graph as a snapshot file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		AsAdjacency adjacency = relationships.adjacency();
+		int nAs = adjacency.size();
+		int nEdges = adjacency.edges();
+		long size = size(nAs, nEdges);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException(concat("Snapshot is too large [", size,
+					"] bytes"));
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			MappedByteBuffer buf = raf.getChannel()
+				.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(nAs);
+			buf.putInt(nEdges);
+			buf.putInt(transitCountThreshold);
+			buf.putInt(0);
+			buf.putDouble(degreeSizeRatio);
+			for (int as = 0; as < nAs; as++) {
+				buf.putLong(dictionary.asNumber(as));
+			}
+			for (int as = 0; as < nAs; as++) {
+				buf.putInt(adjacency.start(as));
+			}
+			buf.putInt(nEdges);
+			for (int e = 0; e < nEdges; e++) {
+				buf.putInt(adjacency.neighbour(e));
+			}
+			for (int as = 0; as < nAs; as++) {
+				buf.putInt(nodeDegreeByAs[as]);
+			}
+			for (int e = 0; e < nEdges; e++) {
+				buf.putInt(transitCustomerToProvider[e]);
+			}
+			for (int e = 0; e < nEdges; e++) {
+				buf.put(relationships.get(e));
+			}
+			buf.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns true if the file starts with the magic number of a snapshot.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isSnapshot(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(4)
+				.order(ByteOrder.LITTLE_ENDIAN);
+			FileChannel channel = in.getChannel();
+			while (buf.hasRemaining() && channel.read(buf) > 0) {
+				// Fill the buffer
+			}
+			return !buf.hasRemaining() && buf.getInt(0) == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Open a snapshot file with memory mapping.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 *             if the file is not a snapshot of this version
+	 */
+	public static AnnotatedAsGraph read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+				throw new IOException(concat("Not a snapshot file [",
+						file.getAbsolutePath(), "]"));
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, fileSize);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.getInt() != MAGIC) {
+				throw new IOException(concat("Not a snapshot file [",
+						file.getAbsolutePath(), "]"));
+			}
+			int version = buf.getInt();
+			if (version != VERSION) {
+				throw new IOException(concat("Snapshot version must be [",
+						VERSION, "] but was [", version, "]"));
+			}
+			int nAs = buf.getInt();
+			int nEdges = buf.getInt();
+			int transitCountThreshold = buf.getInt();
+			buf.getInt();
+			double degreeSizeRatio = buf.getDouble();
+			if (nAs < 0 || nEdges < 0 || size(nAs, nEdges) != fileSize) {
+				throw new IOException(concat("Snapshot is truncated [",
+						file.getAbsolutePath(), "]"));
+			}
+			long[] asById = new long[nAs];
+			buf.asLongBuffer()
+				.get(asById);
+			buf.position(buf.position() + 8 * nAs);
+			int[] offsets = ints(buf, nAs + 1);
+			int[] neighbours = ints(buf, nEdges);
+			int[] nodeDegreeByAs = ints(buf, nAs);
+			int[] transitCustomerToProvider = ints(buf, nEdges);
+			byte[] codes = new byte[nEdges];
+			buf.get(codes);
+			AsDictionary dictionary = new AsDictionary(nAs);
+			for (int as = 0; as < nAs; as++) {
+				if (dictionary.id(asById[as]) != as) {
+					throw new IOException(concat("Duplicate AS [",
+							asById[as], "] in snapshot"));
+				}
+			}
+			AsRelationships relationships = new AsRelationships(
+					new AsAdjacency(offsets, neighbours), codes);
+			return new AnnotatedAsGraph(dictionary, relationships,
+					nodeDegreeByAs, transitCustomerToProvider,
+					transitCountThreshold, degreeSizeRatio);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int[] ints(ByteBuffer buf, int length) {
+		int[] ret = new int[length];
+		buf.asIntBuffer()
+			.get(ret);
+		buf.position(buf.position() + 4 * length);
+		return ret;
+	}
+
+}
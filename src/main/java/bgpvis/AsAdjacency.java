@@ -0,0 +1,209 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.util.Arrays;
+
+/**
+ * Immutable adjacency of the AS graph in compressed sparse row (CSR) form.
+ * <p>
+ * The neighbours of AS id {@code as} are held in
+ * {@code neighbours[offsets[as]]} to {@code neighbours[offsets[as + 1] - 1]},
+ * sorted in ascending order. The position of a neighbour in the neighbour
+ * array is the edge index of the directed edge from the AS to that neighbour.
+ * Arrays that hold a value per edge (such as transit counts and relationship
+ * codes) are aligned to the edge index.
+ */
+public final class AsAdjacency {
+	private final int[] offsets;
+	private final int[] neighbours;
+
+	/**
+	 * @param offsets
+	 *            edge index of the first neighbour of each AS, followed by the
+	 *            number of edges
+	 * @param neighbours
+	 *            neighbours of each AS in ascending order
+	 */
+	AsAdjacency(int[] offsets, int[] neighbours) {
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * Build the adjacency from AS paths in two passes. The first pass counts
+	 * the edges of each AS, and the second pass fills in the neighbours.
+	 * Duplicate neighbours are then removed in place.
+	 * <p>
+	 * Based on Phase 1 of Algorithm 1 (AS Graph Annotation)
+	 *
+	 * @param asPaths
+	 * @param nAs
+	 *            number of ASes in the dictionary
+	 * @return
+	 */
+	public static AsAdjacency of(AsPathCorpus asPaths, int nAs) {
+		int[] offsets = new int[nAs + 1];
+		int nPaths = asPaths.size();
+		int end;
+		for (int p = 0; p < nPaths; p++) {
+			end = asPaths.end(p);
+			for (int i = asPaths.start(p); i < end - 1; i++) {
+				offsets[asPaths.hop(i) + 1]++;
+				offsets[asPaths.hop(i + 1) + 1]++;
+			}
+		}
+		for (int as = 0; as < nAs; as++) {
+			offsets[as + 1] += offsets[as];
+		}
+		int[] neighbours = new int[offsets[nAs]];
+		int[] fill = Arrays.copyOf(offsets, nAs);
+		int curr;
+		int next;
+		for (int p = 0; p < nPaths; p++) {
+			end = asPaths.end(p);
+			for (int i = asPaths.start(p); i < end - 1; i++) {
+				curr = asPaths.hop(i);
+				next = asPaths.hop(i + 1);
+				neighbours[fill[curr]++] = next;
+				neighbours[fill[next]++] = curr;
+			}
+		}
+
+		// Same AS pair may appear in many paths, so remove duplicate
+		// neighbours and compact the rows
+
+		int unique = 0;
+		int start = 0;
+		int rowStart;
+		for (int as = 0; as < nAs; as++) {
+			end = offsets[as + 1];
+			Arrays.sort(neighbours, start, end);
+			rowStart = unique;
+			for (int i = start; i < end; i++) {
+				if (unique == rowStart || neighbours[i] != neighbours[unique - 1]) {
+					neighbours[unique++] = neighbours[i];
+				}
+			}
+			offsets[as] = rowStart;
+			start = end;
+		}
+		offsets[nAs] = unique;
+		return new AsAdjacency(offsets, Arrays.copyOf(neighbours, unique));
+	}
+
+	/**
+	 * Number of ASes.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Number of directed edges. Each AS pair is counted once in each
+	 * direction.
+	 *
+	 * @return
+	 */
+	public int edges() {
+		return neighbours.length;
+	}
+
+	/**
+	 * Node degree of the AS (number of adjacent neighbours).
+	 *
+	 * @param as
+	 * @return
+	 */
+	public int degree(int as) {
+		return offsets[as + 1] - offsets[as];
+	}
+
+	/**
+	 * Edge index of the first neighbour of the AS.
+	 *
+	 * @param as
+	 * @return
+	 */
+	public int start(int as) {
+		return offsets[as];
+	}
+
+	/**
+	 * Edge index after the last neighbour of the AS.
+	 *
+	 * @param as
+	 * @return
+	 */
+	public int end(int as) {
+		return offsets[as + 1];
+	}
+
+	/**
+	 * Neighbour at the head of the directed edge.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public int neighbour(int edge) {
+		return neighbours[edge];
+	}
+
+	/**
+	 * Edge index of the directed edge from the AS to the neighbour, or a
+	 * negative value if the AS pair is not adjacent.
+	 *
+	 * @param as
+	 * @param neighbour
+	 * @return
+	 */
+	public int indexOf(int as, int neighbour) {
+		int ret = Arrays.binarySearch(neighbours, offsets[as],
+				offsets[as + 1], neighbour);
+		if (ret < 0) {
+			return -1;
+		}
+		return ret;
+	}
+
+	/**
+	 * Edge index of the directed edge from the AS to the neighbour.
+	 *
+	 * @param as
+	 * @param neighbour
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the AS pair is not adjacent
+	 */
+	public int edgeIndex(int as, int neighbour) {
+		int ret = indexOf(as, neighbour);
+		if (ret < 0) {
+			throw new IllegalArgumentException(concat("Missing edge for AS [",
+					as, "] and neighbour [", neighbour, "]"));
+		}
+		return ret;
+	}
+
+	/**
+	 * Map each edge index to the edge index of the reverse edge, in linear
+	 * time. ASes are visited in ascending order, and each neighbour row is
+	 * sorted, so the reverse edges of an AS are found in the same order in
+	 * the rows of its neighbours.
+	 *
+	 * @return edge index of the reverse edge, aligned to the edge index
+	 */
+	public int[] reverseEdges() {
+		int nAs = size();
+		int[] ret = new int[neighbours.length];
+		int[] fill = Arrays.copyOf(offsets, nAs);
+		for (int as = 0; as < nAs; as++) {
+			for (int e = offsets[as]; e < offsets[as + 1]; e++) {
+				ret[e] = fill[neighbours[e]]++;
+			}
+		}
+		return ret;
+	}
+
+}
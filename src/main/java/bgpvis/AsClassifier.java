@@ -1,22 +1,21 @@
 package bgpvis;
 
-import static bgpvis.util.StringUtil.concat;
 import static bgpvis.util.StringUtil.split;
 import static bgpvis.util.StringUtil.trim;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bgpvis.util.LineWriter;
+import bgpvis.util.Metrics;
 import bgpvis.util.MyFileWriter;
 
 import com.google.common.base.CharMatcher;
@@ -26,104 +25,243 @@ public final class AsClassifier {
 	private static final String IN_FILE_PATH = System.getProperty("bgp.in.file");
 	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
 	private static final int EXPECTED_NUMBER_OF_EDGES = 60000;
+
+	/**
+	 * Metrics of each phase, next to the output file by default
+	 */
+	private static final String OUT_METRICS_FILE_PATH = System.getProperty(
+			"bgp.out.metrics-file", Metrics.filePath(OUT_FILE_PATH));
 	private static final String STUB = "stub";
 	private static final String REGIONAL_ISP = "regional ISP";
 	private static final String DENSE_CORE = "dense core";
 	private static final String TRANSIT_CORE = "transit core";
 	private static final String OUTER_CORE = "outer core";
 
+	/**
+	 * Labels of the classes that {@link #classify} returns, in the same order
+	 */
+	private static final String[] CLASS_LABELS = { STUB, REGIONAL_ISP,
+			DENSE_CORE, TRANSIT_CORE, OUTER_CORE };
+
+	/**
+	 * Number of pruning rounds. Round 0 prunes stubs and round 1 prunes
+	 * regional ISPs. ASes pruned in further rounds are also labelled as
+	 * regional ISPs.
+	 */
+	static final int PRUNING_ROUNDS = Integer.getInteger(
+			"bgp.in.pruning-rounds", 2);
+
 	private AsClassifier() {
 		// Private constructor, not meant to be instantiated
 	}
 
 	public static void main(String[] args) throws IOException {
 		long startTime = System.currentTimeMillis();
-		BufferedReader br = null;
 		File file = new File(IN_FILE_PATH);
-		String line = "";
-		List<List<String>> in = new ArrayList<>(EXPECTED_NUMBER_OF_EDGES);
-		List<String> tokens;
-		try {
-			br = new BufferedReader(new FileReader(file));
-			while ((line = br.readLine()) != null) {
-				line = trim(line);
-				tokens = split(line, CharMatcher.WHITESPACE);
-				in.add(tokens);
+		AsDictionary dictionary;
+		AsRelationships relationships;
+		BitSet ases;
+		Metrics metrics = new Metrics(AsClassifier.class.getSimpleName());
+		Metrics.Phase phase;
+
+		// Start from the snapshot of the annotated graph if there is one,
+		// else read Task 3 output
+
+		if (AnnotatedAsGraph.isSnapshot(file)) {
+			phase = metrics.start("Read snapshot");
+			AnnotatedAsGraph graph = AnnotatedAsGraph.read(file);
+			dictionary = graph.dictionary();
+			relationships = graph.relationships();
+			ases = ases(relationships);
+			phase.in(relationships.adjacency()
+				.edges())
+				.out(ases.cardinality())
+				.stop();
+		} else {
+			phase = metrics.start("Load relationships");
+			BufferedReader br = null;
+			String line = "";
+			AsPathCorpus edges = new AsPathCorpus(EXPECTED_NUMBER_OF_EDGES,
+					EXPECTED_NUMBER_OF_EDGES * 2);
+			ByteArrayOutputStream codes = new ByteArrayOutputStream(
+					EXPECTED_NUMBER_OF_EDGES);
+			List<String> tokens;
+			dictionary = new AsDictionary();
+			try {
+				br = new BufferedReader(new FileReader(file));
+				while ((line = br.readLine()) != null) {
+					line = trim(line);
+					tokens = split(line, CharMatcher.WHITESPACE);
+					edges.add(dictionary.id(tokens.get(0)),
+							dictionary.id(tokens.get(1)));
+					codes.write(AsGraph.relationshipCode(tokens.get(2)));
+				}
+			} finally {
+				if (br != null) {
+					br.close();
+				}
 			}
-			Map<String, Map<String, String>> relationships = relationships(in);
-			log.info("Start state: {} relationships", relationships.size());
-
-			Set<String> stubs = AsGraph.stubs(relationships);
-			relationships = AsGraph.removeStubs(relationships);
-			log.info("Removed {} stubs: {} relationships left", stubs.size(),
-					relationships.size());
-
-			Set<String> isps = AsGraph.regionalIsps(relationships, stubs);
-			relationships = AsGraph.removeRegionalIsps(relationships, stubs);
-			log.info("Removed {} regional ISPs: {} relationships left",
-					isps.size(), relationships.size());
-
-			Set<String> denseCores = AsGraph.denseCores(relationships);
-			Set<String> transitCores = AsGraph.transitCores(relationships,
-					denseCores);
-			Set<String> outerCores = AsGraph.outerCores(relationships,
-					denseCores, transitCores);
-			int nDenseCores = denseCores.size();
-			int nTransitCores = transitCores.size();
-			int nOuterCores = outerCores.size();
-			int nCores = nDenseCores + nTransitCores + nOuterCores;
-			log.info(
-					"Total {} cores: {} dense cores, {} transit cores, {} outer cores",
-					nCores, nDenseCores, nTransitCores, nOuterCores);
-
-			List<String> out = format(stubs, STUB);
-			out.addAll(format(isps, REGIONAL_ISP));
-			out.addAll(format(denseCores, DENSE_CORE));
-			out.addAll(format(transitCores, TRANSIT_CORE));
-			out.addAll(format(transitCores, OUTER_CORE));
-			file = MyFileWriter.write(out, OUT_FILE_PATH);
-			log.info("Saved {}", file.getAbsolutePath());
-		} finally {
-			if (br != null) {
-				br.close();
+			relationships = AsRelationships.of(edges, codes.toByteArray(),
+					dictionary.size());
+			ases = new BitSet(dictionary.size());
+			for (int i = 0; i < edges.size(); i++) {
+				ases.set(edges.hop(edges.start(i)));
 			}
+			phase.in(edges.size())
+				.out(ases.cardinality())
+				.stop();
 		}
+		BitSet[] classes = classify(relationships, ases, dictionary,
+				PRUNING_ROUNDS, metrics);
+		phase = metrics.start("Write classes");
+		int nLines = write(classes, dictionary, OUT_FILE_PATH);
+		phase.in(nLines)
+			.out(nLines)
+			.stop();
+		file = new File(OUT_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		file = metrics.write(OUT_METRICS_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
 		long elapsedTime = System.currentTimeMillis() - startTime;
 		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
 	}
 
-	private static List<String> format(Set<String> ases, String classLabel) {
-		List<String> ret = new ArrayList<>(ases.size());
-		for (String as : ases) {
-			ret.add(concat(as, " ", classLabel));
+	/**
+	 * Returns the ASes that have at least one relationship, as listed in Task
+	 * 3 output.
+	 *
+	 * @param relationships
+	 * @return
+	 */
+	static BitSet ases(AsRelationships relationships) {
+		int nAs = relationships.adjacency()
+			.size();
+		BitSet ret = new BitSet(nAs);
+		AsRelationships.Cursor edges;
+		for (int as = 0; as < nAs; as++) {
+			edges = relationships.edges(as);
+			while (edges.next()) {
+				if (edges.relationship() != AsGraph.NO_RELATIONSHIP) {
+					ret.set(as);
+					break;
+				}
+			}
 		}
 		return ret;
 	}
 
 	/**
-	 * Returns a nested Map representation of the relationship graph.
-	 * 
+	 * Prune stubs, then prune regional ISPs from the relationship graph, in
+	 * a single pass. Remaining ASes are cores.
+	 *
 	 * @param relationships
-	 * @return
+	 * @param ases
+	 *            ASes in the relationship graph, pruned ASes are removed
+	 * @param dictionary
+	 * @param pruningRounds
+	 *            number of pruning rounds, 2 for stubs and regional ISPs
+	 * @param metrics
+	 * @return ASes of each class, in the order of the class labels
 	 */
-	private static Map<String, Map<String, String>> relationships(
-			List<List<String>> relationships) {
-		Map<String, Map<String, String>> ret = new HashMap<>(
-				relationships.size());
-		String as1, as2, relationship;
-		Map<String, String> temp;
-		for (List<String> edge : relationships) {
-			as1 = edge.get(0);
-			as2 = edge.get(1);
-			relationship = edge.get(2);
-			temp = ret.get(as1);
-			if (temp == null) {
-				temp = new HashMap<>();
+	static BitSet[] classify(AsRelationships relationships, BitSet ases,
+			AsDictionary dictionary, int pruningRounds, Metrics metrics) {
+		int nAs = ases.cardinality();
+		log.info("Start state: {} relationships", nAs);
+
+		Metrics.Phase phase = metrics.start("Prune stubs and regional ISPs");
+		int[] rounds = AsGraph.prune(relationships, ases, pruningRounds);
+		BitSet stubs = new BitSet(rounds.length);
+		BitSet isps = new BitSet(rounds.length);
+		for (int as = 0; as < rounds.length; as++) {
+			if (rounds[as] == 0) {
+				stubs.set(as);
+			} else if (rounds[as] > 0) {
+				isps.set(as);
+			}
+		}
+		int nCoreCandidates = ases.cardinality();
+		phase.in(nAs)
+			.out(nAs - nCoreCandidates)
+			.stop();
+		log.info("Removed {} stubs and {} regional ISPs in {} rounds: {} relationships left",
+				stubs.cardinality(), isps.cardinality(), pruningRounds,
+				ases.cardinality());
+
+		phase = metrics.start("Dense cores");
+		BitSet denseCores = AsGraph.denseCores(relationships, ases);
+		int nDenseCores = denseCores.cardinality();
+		phase.in(nCoreCandidates)
+			.out(nDenseCores)
+			.stop();
+		phase = metrics.start("Transit cores");
+		BitSet transitCores = AsGraph.transitCores(relationships,
+				ases, denseCores);
+		int nTransitCores = transitCores.cardinality();
+		phase.in(nCoreCandidates)
+			.out(nTransitCores)
+			.stop();
+		phase = metrics.start("Outer cores");
+		BitSet outerCores = AsGraph.outerCores(ases, denseCores,
+				transitCores);
+		int nOuterCores = outerCores.cardinality();
+		phase.in(nCoreCandidates)
+			.out(nOuterCores)
+			.stop();
+		int nCores = nDenseCores + nTransitCores + nOuterCores;
+		log.info(
+				"Total {} cores: {} dense cores, {} transit cores, {} outer cores",
+				nCores, nDenseCores, nTransitCores, nOuterCores);
+		return new BitSet[] { stubs, isps, denseCores, transitCores,
+				transitCores };
+	}
+
+	/**
+	 * Write the class label of each AS in required format, without building
+	 * a string for each line.
+	 *
+	 * @param out
+	 * @param classes
+	 *            ASes of each class, in the order of the class labels
+	 * @param dictionary
+	 * @return number of lines
+	 * @throws IOException
+	 */
+	static int write(LineWriter out, BitSet[] classes, AsDictionary dictionary)
+			throws IOException {
+		int ret = 0;
+		BitSet ases;
+		for (int i = 0; i < classes.length; i++) {
+			ases = classes[i];
+			for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+				out.nextLine()
+					.write(dictionary.asNumber(as))
+					.write(' ')
+					.write(CLASS_LABELS[i]);
+				ret++;
 			}
-			temp.put(as2, relationship);
-			ret.put(as1, temp);
 		}
 		return ret;
 	}
 
+	/**
+	 * Write the class label of each AS in required format to the file.
+	 *
+	 * @param classes
+	 *            ASes of each class, in the order of the class labels
+	 * @param dictionary
+	 * @param filePath
+	 *            gzipped if it ends with {@link LineWriter#GZIP_SUFFIX}
+	 * @return number of lines
+	 * @throws IOException
+	 */
+	static int write(BitSet[] classes, AsDictionary dictionary,
+			String filePath) throws IOException {
+		LineWriter out = MyFileWriter.open(filePath);
+		try {
+			return write(out, classes, dictionary);
+		} finally {
+			out.close();
+		}
+	}
+
 }
@@ -0,0 +1,209 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.util.Arrays;
+
+import bgpvis.util.LongIntHashMap;
+
+/**
+ * Maps each AS to a dense int id, so that the AS graph can be keyed by
+ * primitive ints instead of strings. Ids are assigned in order of first
+ * appearance, starting from zero.
+ * <p>
+ * ASes are keyed by AS number, so they can be looked up straight from parsed
+ * input without building a string. Strings are only meant to come back out of
+ * the dictionary at output time.
+ */
+public final class AsDictionary {
+
+	/**
+	 * AS numbers with more digits than this may not fit in a long.
+	 */
+	private static final int MAX_AS_DIGITS = 18;
+
+	private final LongIntHashMap idByAs;
+	private long[] asById;
+	private int size;
+
+	public AsDictionary() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            expected number of distinct ASes, used for collection sizing
+	 */
+	public AsDictionary(int expectedSize) {
+		idByAs = new LongIntHashMap(expectedSize);
+		asById = new long[Math.max(expectedSize, 1)];
+	}
+
+	/**
+	 * Returns the id of the AS, assigning a new id if the AS has not been seen
+	 * before.
+	 *
+	 * @param as
+	 *            AS number
+	 * @return
+	 */
+	public int id(long as) {
+		int id = idByAs.get(as, -1);
+		if (id < 0) {
+			id = size;
+			idByAs.put(as, id);
+			if (size == asById.length) {
+				asById = Arrays.copyOf(asById, size + (size >> 1) + 1);
+			}
+			asById[size++] = as;
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the AS, assigning a new id if the AS has not been seen
+	 * before.
+	 *
+	 * @param as
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the AS is not a number
+	 */
+	public int id(String as) {
+		return id(parse(as));
+	}
+
+	/**
+	 * Returns the id of the AS, or -1 if the AS is not in the dictionary.
+	 *
+	 * @param as
+	 *            AS number
+	 * @return
+	 */
+	public int indexOf(long as) {
+		return idByAs.get(as, -1);
+	}
+
+	/**
+	 * Returns the id of the AS, or -1 if the AS is not in the dictionary.
+	 *
+	 * @param as
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the AS is not a number
+	 */
+	public int indexOf(String as) {
+		return indexOf(parse(as));
+	}
+
+	/**
+	 * Returns the AS number that is mapped to the id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public long asNumber(int id) {
+		if (id < 0 || id >= size) {
+			throw new IllegalArgumentException(concat("Unknown AS id [", id,
+					"]"));
+		}
+		return asById[id];
+	}
+
+	/**
+	 * Returns the AS that is mapped to the id.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public String as(int id) {
+		return Long.toString(asNumber(id));
+	}
+
+	/**
+	 * Number of distinct ASes in the dictionary.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Parse an AS number.
+	 *
+	 * @param as
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the AS is not a number
+	 */
+	public static long parse(String as) {
+		return parse(as, 0, as.length());
+	}
+
+	/**
+	 * Parse an AS number from the characters in the range [start, end),
+	 * without building a string.
+	 *
+	 * @param s
+	 * @param start
+	 * @param end
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the AS is not a number
+	 */
+	public static long parse(CharSequence s, int start, int end) {
+		if (end <= start || end - start > MAX_AS_DIGITS) {
+			throw new IllegalArgumentException(concat(
+					"AS must be a number [", s.subSequence(start, end), "]"));
+		}
+		long ret = 0;
+		char c;
+		for (int i = start; i < end; i++) {
+			c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new IllegalArgumentException(concat(
+						"AS must be a number [", s.subSequence(start, end),
+						"]"));
+			}
+			ret = ret * 10 + (c - '0');
+		}
+		return ret;
+	}
+
+	/**
+	 * Compare the strings of two AS numbers in lexicographic order, without
+	 * building the strings. The shorter number is scaled up to the same number
+	 * of digits, and a tie goes to the shorter number because its string is a
+	 * prefix of the other.
+	 *
+	 * @param as1
+	 * @param as2
+	 * @return
+	 */
+	public static int compareLexicographically(long as1, long as2) {
+		int digits1 = digits(as1);
+		int digits2 = digits(as2);
+		long scaled1 = as1;
+		long scaled2 = as2;
+		for (int i = digits1; i < digits2; i++) {
+			scaled1 *= 10;
+		}
+		for (int i = digits2; i < digits1; i++) {
+			scaled2 *= 10;
+		}
+		if (scaled1 != scaled2) {
+			return scaled1 < scaled2 ? -1 : 1;
+		}
+		return digits1 - digits2;
+	}
+
+	private static int digits(long as) {
+		int ret = 1;
+		for (long n = as / 10; n > 0; n /= 10) {
+			ret++;
+		}
+		return ret;
+	}
+
+}
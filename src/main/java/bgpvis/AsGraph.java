@@ -4,6 +4,7 @@ import static bgpvis.util.StringUtil.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -12,6 +13,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +38,28 @@ public final class AsGraph {
 	private static final String CUSTOMER_TO_PROVIDER = "c2p";
 	private static final String PROVIDER_TO_CUSTOMER = "p2c";
 
+	/**
+	 * Relationship codes used by the int-keyed relationship graph. Each code
+	 * is the relationship of an AS to one of its neighbours.
+	 */
+	public static final byte NO_RELATIONSHIP = 0;
+	public static final byte P2C = 1;
+	public static final byte C2P = 2;
+	public static final byte P2P = 3;
+	public static final byte S2S = 4;
+
+	/**
+	 * Paths are split into about this many ranges per worker when counting
+	 * transit relationships in parallel.
+	 */
+	private static final int SHARDS_PER_WORKER = 4;
+
+	/**
+	 * Ranges smaller than this are not split further, since each range
+	 * allocates a shard with one counter per edge.
+	 */
+	private static final int MIN_PATHS_PER_SHARD = 4096;
+
 	private AsGraph() {
 		// Private constructor, not meant to be instantiated
 	}
@@ -158,8 +183,12 @@ public final class AsGraph {
 	 */
 	public static int indexOfTopProvider(String asPath,
 			Map<String, Integer> nodeDegreeByAs) {
+		return indexOfTopProvider(AsPath.asList(asPath), nodeDegreeByAs);
+	}
+
+	private static int indexOfTopProvider(List<String> asList,
+			Map<String, Integer> nodeDegreeByAs) {
 		int j = -1;
-		List<String> asList = AsPath.asList(asPath);
 		int size = asList.size();
 		int max = 0;
 		Integer degree;
@@ -198,7 +227,7 @@ public final class AsGraph {
 		String curr;
 		String next;
 		int size = asList.size();
-		int j = indexOfTopProvider(asPath, nodeDegreeByAs);
+		int j = indexOfTopProvider(asList, nodeDegreeByAs);
 		for (int i = 0; i < size - 1; i++) {
 			curr = asList.get(i);
 			next = asList.get(i + 1);
@@ -246,21 +275,8 @@ public final class AsGraph {
 	 */
 	public static Multiset<String> countTransitRelationship(String asPath,
 			Map<String, Integer> nodeDegreeByAs) {
-		List<String> asList = AsPath.asList(asPath);
-		String curr;
-		String next;
-		int size = asList.size();
-		int j = indexOfTopProvider(asPath, nodeDegreeByAs);
-		Multiset<String> result = HashMultiset.create(nodeDegreeByAs.size());
-		for (int i = 0; i < size - 1; i++) {
-			curr = asList.get(i);
-			next = asList.get(i + 1);
-			if (i < j) {
-				result.add(toString(curr, next));
-				continue;
-			}
-			result.add(toString(next, curr));
-		}
+		Multiset<String> result = HashMultiset.create();
+		countTransitRelationship(asPath, nodeDegreeByAs, result);
 		return result;
 	}
 
@@ -280,11 +296,37 @@ public final class AsGraph {
 			List<String> asPaths, Map<String, Integer> nodeDegreeByAs) {
 		Multiset<String> result = HashMultiset.create(nodeDegreeByAs.size());
 		for (String path : asPaths) {
-			result.addAll(countTransitRelationship(path, nodeDegreeByAs));
+			countTransitRelationship(path, nodeDegreeByAs, result);
 		}
 		return result;
 	}
 
+	/**
+	 * Add the customer-to-provider transit relationships of the AS path to
+	 * the result, without building a multiset per path.
+	 * 
+	 * @param asPath
+	 * @param nodeDegreeByAs
+	 * @param result
+	 */
+	private static void countTransitRelationship(String asPath,
+			Map<String, Integer> nodeDegreeByAs, Multiset<String> result) {
+		List<String> asList = AsPath.asList(asPath);
+		String curr;
+		String next;
+		int size = asList.size();
+		int j = indexOfTopProvider(asList, nodeDegreeByAs);
+		for (int i = 0; i < size - 1; i++) {
+			curr = asList.get(i);
+			next = asList.get(i + 1);
+			if (i < j) {
+				result.add(toString(curr, next));
+				continue;
+			}
+			result.add(toString(next, curr));
+		}
+	}
+
 	/**
 	 * Assign sibling-to-sibling, customer-to-provider, or provider-to-customer
 	 * relationships. Based on Task 3 Algorithm 1 Phase 3.
@@ -312,8 +354,10 @@ public final class AsGraph {
 			nextServedByCurr = transitCustomerToProvider.count(pair1);
 			pair2 = toString(curr, next);
 			currServedByNext = transitCustomerToProvider.count(pair2);
-			log.debug("({}): {}, ({}): {}", pair1, nextServedByCurr, pair2,
-					currServedByNext);
+			if (log.isDebugEnabled()) {
+				log.debug("({}): {}, ({}): {}", pair1, nextServedByCurr,
+						pair2, currServedByNext);
+			}
 
 			// If both ASes are greater than threshold L,
 			// mark the edge as sibling
@@ -404,7 +448,7 @@ public final class AsGraph {
 		String curr;
 		String next;
 		int size = asList.size();
-		int j = indexOfTopProvider(asPath, nodeDegreeByAs);
+		int j = indexOfTopProvider(asList, nodeDegreeByAs);
 		for (int i = 0; i < size - 1; i++) {
 			curr = asList.get(i);
 			next = asList.get(i + 1);
@@ -557,14 +601,18 @@ public final class AsGraph {
 	}
 
 	/**
-	 * Returns a string representation of a list of ASes. Usually used to name a
-	 * relationship edge (AS pair).
+	 * Returns a string representation of an AS pair. Usually used to name a
+	 * relationship edge.
 	 * 
-	 * @param as
+	 * @param as1
+	 * @param as2
 	 * @return
 	 */
-	private static String toString(String... as) {
-		return join(Arrays.asList(as), AS_SEPARATOR);
+	private static String toString(String as1, String as2) {
+		return new StringBuilder(as1.length() + as2.length() + 1).append(as1)
+			.append(AS_SEPARATOR)
+			.append(as2)
+			.toString();
 	}
 
 	/**
@@ -821,4 +869,817 @@ public final class AsGraph {
 		return ret;
 	}
 
+	/**
+	 * Returns the relationship code of a relationship label such as "p2c".
+	 *
+	 * @param relationship
+	 * @return
+	 */
+	public static byte relationshipCode(String relationship) {
+		switch (relationship) {
+		case PROVIDER_TO_CUSTOMER:
+			return P2C;
+		case CUSTOMER_TO_PROVIDER:
+			return C2P;
+		case PEER_TO_PEER:
+			return P2P;
+		case SIBLING_TO_SIBLING:
+			return S2S;
+		default:
+			throw new IllegalArgumentException(concat(
+					"Unknown relationship [", relationship, "]"));
+		}
+	}
+
+	/**
+	 * Returns the relationship label of a relationship code.
+	 *
+	 * @param code
+	 * @return
+	 */
+	public static String relationship(byte code) {
+		switch (code) {
+		case P2C:
+			return PROVIDER_TO_CUSTOMER;
+		case C2P:
+			return CUSTOMER_TO_PROVIDER;
+		case P2P:
+			return PEER_TO_PEER;
+		case S2S:
+			return SIBLING_TO_SIBLING;
+		default:
+			throw new IllegalArgumentException(concat(
+					"Unknown relationship code [", code, "]"));
+		}
+	}
+
+	/**
+	 * Map AS to its node degree.
+	 *
+	 * @param adjacency
+	 * @return
+	 */
+	public static int[] nodeDegreeByAs(AsAdjacency adjacency) {
+		int nAs = adjacency.size();
+		int[] ret = new int[nAs];
+		for (int as = 0; as < nAs; as++) {
+			ret[as] = adjacency.degree(as);
+		}
+		return ret;
+	}
+
+	/**
+	 * Map node degree (number of adjacent neighbours) to ASes that have the
+	 * same node degree. Data structure allows for easy sorting of ASes by node
+	 * degree. ASes without neighbours are left out, the same as
+	 * {@link #asByNodeDegree(Multimap)}.
+	 *
+	 * @param adjacency
+	 * @param dictionary
+	 * @return
+	 */
+	public static TreeMultimap<Integer, String> asByNodeDegree(
+			AsAdjacency adjacency, AsDictionary dictionary) {
+		TreeMultimap<Integer, String> result = TreeMultimap.create();
+		int nAs = adjacency.size();
+		for (int as = 0; as < nAs; as++) {
+			if (adjacency.degree(as) > 0) {
+				result.put(adjacency.degree(as), dictionary.as(as));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get top k ASes by largest node degree, with a bounded min-heap over the
+	 * node degree array instead of sorting every AS. ASes that have the same
+	 * node degree are ranked in lexicographic order of the AS, the same as
+	 * {@link #top(TreeMultimap, int)}.
+	 * <p>
+	 * Top k ASes for any smaller k are a prefix of the result, so several k
+	 * values are served by one call with the largest k. ASes without
+	 * neighbours are not ranked, so fewer than k ASes may be returned.
+	 *
+	 * @param nodeDegreeByAs
+	 * @param dictionary
+	 * @param k
+	 * @return AS ids in descending rank
+	 */
+	public static int[] top(int[] nodeDegreeByAs, AsDictionary dictionary,
+			int k) {
+		if (k <= 0) {
+			throw new IllegalArgumentException(concat(
+					"k must be a positive number [", k, "]"));
+		}
+		int[] heap = new int[Math.min(k, nodeDegreeByAs.length)];
+		int size = 0;
+		for (int as = 0; as < nodeDegreeByAs.length; as++) {
+			if (nodeDegreeByAs[as] == 0) {
+				continue;
+			}
+			if (size < heap.length) {
+				heap[size] = as;
+				siftUp(heap, size++, nodeDegreeByAs, dictionary);
+				continue;
+			}
+
+			// Root of the heap is the lowest ranked AS of the top k
+
+			if (rankedHigher(as, heap[0], nodeDegreeByAs, dictionary)) {
+				heap[0] = as;
+				siftDown(heap, size, nodeDegreeByAs, dictionary);
+			}
+		}
+
+		// Pop the lowest ranked AS to the back, until the heap is empty
+
+		int[] ret = Arrays.copyOf(heap, size);
+		int root;
+		while (size > 1) {
+			root = ret[0];
+			ret[0] = ret[--size];
+			ret[size] = root;
+			siftDown(ret, size, nodeDegreeByAs, dictionary);
+		}
+		return ret;
+	}
+
+	private static boolean rankedHigher(int as1, int as2,
+			int[] nodeDegreeByAs, AsDictionary dictionary) {
+		if (nodeDegreeByAs[as1] != nodeDegreeByAs[as2]) {
+			return nodeDegreeByAs[as1] > nodeDegreeByAs[as2];
+		}
+		return AsDictionary.compareLexicographically(
+				dictionary.asNumber(as1), dictionary.asNumber(as2)) < 0;
+	}
+
+	private static void siftUp(int[] heap, int i, int[] nodeDegreeByAs,
+			AsDictionary dictionary) {
+		int as = heap[i];
+		int parent;
+		while (i > 0) {
+			parent = (i - 1) >> 1;
+			if (!rankedHigher(heap[parent], as, nodeDegreeByAs, dictionary)) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = as;
+	}
+
+	private static void siftDown(int[] heap, int size, int[] nodeDegreeByAs,
+			AsDictionary dictionary) {
+		int as = heap[0];
+		int i = 0;
+		int child;
+		while ((child = (i << 1) + 1) < size) {
+			if (child + 1 < size
+					&& rankedHigher(heap[child], heap[child + 1],
+							nodeDegreeByAs, dictionary)) {
+				child++;
+			}
+			if (!rankedHigher(as, heap[child], nodeDegreeByAs, dictionary)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = as;
+	}
+
+	/**
+	 * Count the ASes of each node degree in one pass. ASes without neighbours
+	 * are not counted, the same as {@link #top(int[], AsDictionary, int)}.
+	 *
+	 * @param nodeDegreeByAs
+	 * @return number of ASes, indexed by node degree
+	 */
+	public static int[] nodeDegreeHistogram(int[] nodeDegreeByAs) {
+		int max = 0;
+		for (int degree : nodeDegreeByAs) {
+			max = Math.max(max, degree);
+		}
+		int[] ret = new int[max + 1];
+		for (int degree : nodeDegreeByAs) {
+			if (degree > 0) {
+				ret[degree]++;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Node degree at the percentile, by the nearest-rank method: the smallest
+	 * node degree such that at least the given percent of ASes have a node
+	 * degree that is not larger.
+	 *
+	 * @param histogram
+	 *            see {@link #nodeDegreeHistogram(int[])}
+	 * @param percentile
+	 *            greater than 0 and at most 100
+	 * @return
+	 */
+	public static int percentile(int[] histogram, double percentile) {
+		if (!(percentile > 0 && percentile <= 100)) {
+			throw new IllegalArgumentException(concat(
+					"Percentile must be greater than 0 and at most 100 [",
+					percentile, "]"));
+		}
+		long total = 0;
+		for (int count : histogram) {
+			total += count;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * total);
+		long seen = 0;
+		for (int degree = 0; degree < histogram.length; degree++) {
+			seen += histogram[degree];
+			if (seen >= rank) {
+				return degree;
+			}
+		}
+		return histogram.length - 1;
+	}
+
+	/**
+	 * Count customer-to-provider transit relationships
+	 * <p>
+	 * Index: edge index of a given customer-to-provider edge
+	 * <p>
+	 * Value: Number of occurrences of this transit relationship
+	 * <p>
+	 * Top providers of the paths must have been indexed.
+	 *
+	 * @param asPaths
+	 * @param adjacency
+	 * @return
+	 */
+	public static int[] countTransitRelationship(AsPathCorpus asPaths,
+			AsAdjacency adjacency) {
+		int[] ret = new int[adjacency.edges()];
+		countTransitRelationship(asPaths, adjacency, 0, asPaths.size(), ret);
+		return ret;
+	}
+
+	/**
+	 * Count customer-to-provider transit relationships in parallel. Paths are
+	 * split into ranges, and each range is counted into its own shard. Shards
+	 * are summed at the end, so the result is identical to
+	 * {@link #countTransitRelationship(AsPathCorpus, AsAdjacency)}.
+	 * <p>
+	 * Top providers of the paths must have been indexed.
+	 *
+	 * @param asPaths
+	 * @param adjacency
+	 * @param pool
+	 * @return
+	 */
+	public static int[] countTransitRelationship(AsPathCorpus asPaths,
+			AsAdjacency adjacency, ForkJoinPool pool) {
+		int nPaths = asPaths.size();
+
+		// A few ranges per worker evens out paths of unequal length,
+		// without allocating too many shards
+
+		int threshold = Math.max(MIN_PATHS_PER_SHARD,
+				nPaths / (pool.getParallelism() * SHARDS_PER_WORKER) + 1);
+		return pool.invoke(new TransitCountTask(asPaths, adjacency, 0, nPaths,
+				threshold));
+	}
+
+	/**
+	 * Count customer-to-provider transit relationships of paths in the range
+	 * [from, to) into the result.
+	 *
+	 * @param asPaths
+	 * @param adjacency
+	 * @param from
+	 * @param to
+	 * @param result
+	 */
+	private static void countTransitRelationship(AsPathCorpus asPaths,
+			AsAdjacency adjacency, int from, int to, int[] result) {
+		int start;
+		int end;
+		int curr;
+		int next;
+		int j;
+		for (int p = from; p < to; p++) {
+			start = asPaths.start(p);
+			end = asPaths.end(p);
+			j = start + asPaths.indexOfTopProvider(p);
+			for (int i = start; i < end - 1; i++) {
+				curr = asPaths.hop(i);
+				next = asPaths.hop(i + 1);
+				if (i < j) {
+					result[adjacency.edgeIndex(curr, next)]++;
+					continue;
+				}
+				result[adjacency.edgeIndex(next, curr)]++;
+			}
+		}
+	}
+
+	/**
+	 * Counts transit relationships of a range of paths into its own shard,
+	 * then sums the shards of both halves.
+	 */
+	private static final class TransitCountTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final AsPathCorpus asPaths;
+		private final AsAdjacency adjacency;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		private TransitCountTask(AsPathCorpus asPaths, AsAdjacency adjacency,
+				int from, int to, int threshold) {
+			this.asPaths = asPaths;
+			this.adjacency = adjacency;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected int[] compute() {
+			if (to - from <= threshold) {
+				int[] shard = new int[adjacency.edges()];
+				countTransitRelationship(asPaths, adjacency, from, to, shard);
+				return shard;
+			}
+			int mid = (from + to) >>> 1;
+			TransitCountTask left = new TransitCountTask(asPaths, adjacency,
+					from, mid, threshold);
+			TransitCountTask right = new TransitCountTask(asPaths, adjacency,
+					mid, to, threshold);
+			left.fork();
+			int[] ret = right.compute();
+			int[] other = left.join();
+			for (int e = 0; e < ret.length; e++) {
+				ret[e] += other[e];
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Assign sibling-to-sibling, customer-to-provider, or provider-to-customer
+	 * relationships. Based on Task 3 Algorithm 1 Phase 3.
+	 * <p>
+	 * The relationship of an AS pair depends only on the transit counts of the
+	 * pair, so each edge is visited once instead of once per path.
+	 *
+	 * @param adjacency
+	 * @param transitCustomerToProvider
+	 * @param threshold
+	 * @return
+	 */
+	public static AsRelationships relationships(AsAdjacency adjacency,
+			int[] transitCustomerToProvider, int threshold) {
+		AsRelationships ret = new AsRelationships(adjacency);
+		int nAs = adjacency.size();
+		int next;
+		int k;
+		int nextServedByCurr;
+		int currServedByNext;
+		byte code;
+		for (int curr = 0; curr < nAs; curr++) {
+			for (int e = adjacency.start(curr); e < adjacency.end(curr); e++) {
+				next = adjacency.neighbour(e);
+				if (next < curr) {
+					continue;
+				}
+				k = adjacency.edgeIndex(next, curr);
+				nextServedByCurr = transitCustomerToProvider[k];
+				currServedByNext = transitCustomerToProvider[e];
+				code = transitRelationship(currServedByNext, nextServedByCurr,
+						threshold);
+				ret.set(e, code);
+				ret.set(k, reverse(code));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Relationship of an AS to its neighbour, given the transit counts of the
+	 * AS pair in both directions. Based on Task 3 Algorithm 1 Phase 3.
+	 *
+	 * @param currServedByNext
+	 *            transit count of the edge from the AS to its neighbour
+	 * @param nextServedByCurr
+	 *            transit count of the edge from the neighbour to the AS
+	 * @param threshold
+	 * @return relationship code of the AS to its neighbour
+	 */
+	static byte transitRelationship(int currServedByNext,
+			int nextServedByCurr, int threshold) {
+
+		// If both ASes are greater than threshold L,
+		// mark the edge as sibling
+
+		if (nextServedByCurr > threshold && currServedByNext > threshold) {
+			return S2S;
+		}
+
+		// If both ASes are less than threshold L and greater than
+		// zero, mark the edge as sibling
+
+		if (currServedByNext <= threshold && currServedByNext > 0
+				&& nextServedByCurr <= threshold && nextServedByCurr > 0) {
+			return S2S;
+		}
+
+		if (nextServedByCurr > threshold || currServedByNext == 0) {
+			return P2C;
+		}
+
+		// Otherwise currServedByNext > threshold or nextServedByCurr == 0
+
+		return C2P;
+	}
+
+	/**
+	 * Relationship code of the neighbour to the AS, given the relationship
+	 * code of the AS to the neighbour.
+	 *
+	 * @param code
+	 * @return
+	 */
+	static byte reverse(byte code) {
+		switch (code) {
+		case P2C:
+			return C2P;
+		case C2P:
+			return P2C;
+		default:
+			return code;
+		}
+	}
+
+	/**
+	 * Mark AS pair edges as non-peering. Based on Task 3 Algorithm 2 Phase 2.
+	 * <p>
+	 * Top providers of the paths must have been indexed.
+	 *
+	 * @param asPaths
+	 * @param nodeDegreeByAs
+	 * @param relationships
+	 * @return true if the edge cannot be a peering edge, aligned to the edge
+	 *         index
+	 */
+	public static boolean[] nonPeers(AsPathCorpus asPaths,
+			int[] nodeDegreeByAs, AsRelationships relationships) {
+		AsAdjacency adjacency = relationships.adjacency();
+		boolean[] ret = new boolean[adjacency.edges()];
+		int nPaths = asPaths.size();
+		int start;
+		int end;
+		int curr;
+		int next;
+		int j;
+		for (int p = 0; p < nPaths; p++) {
+			start = asPaths.start(p);
+			end = asPaths.end(p);
+			j = start + asPaths.indexOfTopProvider(p);
+			for (int i = start; i < end - 1; i++) {
+				curr = asPaths.hop(i);
+				next = asPaths.hop(i + 1);
+				if (i < j - 1 || i > j) {
+					ret[adjacency.edgeIndex(curr, next)] = true;
+				}
+			}
+			if (j - 1 >= start && j + 1 < end) {
+				boolean hasLeftSibling = false;
+				boolean hasRightSibling = false;
+				int topProvider = asPaths.hop(j);
+				int prev = asPaths.hop(j - 1);
+				next = asPaths.hop(j + 1);
+				if (relationships.get(prev, topProvider) == S2S) {
+					hasLeftSibling = false;
+				}
+				if (relationships.get(topProvider, next) == S2S) {
+					hasRightSibling = true;
+				}
+				if (!hasLeftSibling && !hasRightSibling) {
+					if (nodeDegreeByAs[prev] > nodeDegreeByAs[next]) {
+						ret[adjacency.edgeIndex(topProvider, next)] = true;
+					} else {
+						ret[adjacency.edgeIndex(prev, topProvider)] = true;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Assign peer-to-peer relationships to AS pair edges. Based on Task 3
+	 * Algorithm 2 Phase 3.
+	 *
+	 * @param asPaths
+	 * @param nodeDegreeByAs
+	 * @param relationships
+	 * @param nonPeers
+	 * @param degreeSizeRatio
+	 */
+	public static void peeringRelationships(AsPathCorpus asPaths,
+			int[] nodeDegreeByAs, AsRelationships relationships,
+			boolean[] nonPeers, double degreeSizeRatio) {
+		AsAdjacency adjacency = relationships.adjacency();
+		int nPaths = asPaths.size();
+		int end;
+		int curr;
+		int next;
+		int e1;
+		int e2;
+		double ratio;
+		for (int p = 0; p < nPaths; p++) {
+			end = asPaths.end(p);
+			for (int i = asPaths.start(p); i < end - 1; i++) {
+				curr = asPaths.hop(i);
+				next = asPaths.hop(i + 1);
+				ratio = nodeDegreeByAs[curr] / nodeDegreeByAs[next];
+				e1 = adjacency.edgeIndex(curr, next);
+				e2 = adjacency.edgeIndex(next, curr);
+
+				// Both curr and next ASes are non-peering in both directions,
+				// and degree size ratio does not exceed threshold
+
+				if (!nonPeers[e1] && !nonPeers[e2] && ratio < degreeSizeRatio
+						&& ratio > (1 / degreeSizeRatio)) {
+					relationships.set(e1, P2P);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stub has no peers and cannot be a provider
+	 *
+	 * @param as
+	 * @param relationships
+	 * @return
+	 */
+	public static boolean stub(int as, AsRelationships relationships) {
+		AsRelationships.Cursor edges = relationships.edges(as);
+		byte relationship;
+		while (edges.next()) {
+			relationship = edges.relationship();
+			if (relationship == P2P || relationship == P2C) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a set of stubs from a relationship graph.
+	 *
+	 * @param relationships
+	 * @param ases
+	 *            ASes that remain in the relationship graph
+	 * @return
+	 */
+	public static BitSet stubs(AsRelationships relationships, BitSet ases) {
+		BitSet ret = new BitSet(relationships.adjacency()
+			.size());
+		for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+			if (stub(as, relationships)) {
+				ret.set(as);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Regional ISPs have no peers and provide transit to stubs only.
+	 *
+	 * @param as
+	 * @param relationships
+	 * @param stubs
+	 * @return
+	 */
+	public static boolean regionalIsp(int as, AsRelationships relationships,
+			BitSet stubs) {
+		AsRelationships.Cursor edges = relationships.edges(as);
+		byte relationship;
+		while (edges.next()) {
+			relationship = edges.relationship();
+			if (relationship == P2P) {
+				return false;
+			}
+			if (relationship == P2C && !stubs.get(edges.neighbour())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a set of regional ISPs from the relationship graph.
+	 *
+	 * @param relationships
+	 * @param ases
+	 *            ASes that remain in the relationship graph
+	 * @param stubs
+	 * @return
+	 */
+	public static BitSet regionalIsps(AsRelationships relationships,
+			BitSet ases, BitSet stubs) {
+		BitSet ret = new BitSet(relationships.adjacency()
+			.size());
+		for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+			if (regionalIsp(as, relationships, stubs)) {
+				ret.set(as);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Prune ASes that have no peers and whose customers have all been pruned,
+	 * in rounds. Round 0 prunes stubs (no peers and no customers), round 1
+	 * prunes regional ISPs (no peers, and customers are stubs only), and each
+	 * further round prunes ASes whose customers were pruned in earlier
+	 * rounds.
+	 * <p>
+	 * Each AS keeps a count of its peers and of its customers that remain.
+	 * Pruned ASes are taken from a queue in order of round, and each pruned
+	 * AS decrements the count of its providers, so an AS is queued as soon as
+	 * its last customer is pruned. All rounds take a single pass over the
+	 * edges, without evaluating each AS again per round.
+	 *
+	 * @param relationships
+	 * @param ases
+	 *            ASes in the relationship graph, pruned ASes are removed
+	 * @param rounds
+	 *            number of pruning rounds
+	 * @return round in which each AS was pruned, or -1 if the AS remains
+	 */
+	public static int[] prune(AsRelationships relationships, BitSet ases,
+			int rounds) {
+		AsAdjacency adjacency = relationships.adjacency();
+		int nAs = adjacency.size();
+		int[] ret = new int[nAs];
+		Arrays.fill(ret, -1);
+		if (rounds <= 0) {
+			return ret;
+		}
+		int[] peers = new int[nAs];
+		int[] customers = new int[nAs];
+		int[] queue = new int[nAs];
+		int head = 0;
+		int tail = 0;
+		byte relationship;
+		for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+			for (int e = adjacency.start(as); e < adjacency.end(as); e++) {
+				relationship = relationships.get(e);
+				if (relationship == P2P) {
+					peers[as]++;
+				} else if (relationship == P2C) {
+					customers[as]++;
+				}
+			}
+
+			// Stubs
+
+			if (peers[as] == 0 && customers[as] == 0) {
+				ret[as] = 0;
+				queue[tail++] = as;
+			}
+		}
+		int[] reverseEdges = adjacency.reverseEdges();
+		int as;
+		int provider;
+		while (head < tail) {
+			as = queue[head++];
+			ases.clear(as);
+			if (ret[as] + 1 >= rounds) {
+				continue;
+			}
+			for (int e = adjacency.start(as); e < adjacency.end(as); e++) {
+				provider = adjacency.neighbour(e);
+				if (relationships.get(reverseEdges[e]) != P2C
+						|| !ases.get(provider) || ret[provider] >= 0) {
+					continue;
+				}
+
+				// Queue is in order of round, so the last customer to be
+				// pruned is from the latest round
+
+				if (--customers[provider] == 0 && peers[provider] == 0) {
+					ret[provider] = ret[as] + 1;
+					queue[tail++] = provider;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Dense cores have no upstream providers
+	 *
+	 * @param as
+	 * @param relationships
+	 * @return
+	 */
+	public static boolean denseCore(int as, AsRelationships relationships) {
+		AsRelationships.Cursor edges = relationships.edges(as);
+		while (edges.next()) {
+			if (edges.relationship() == C2P) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a set of dense cores from a relationship graph
+	 *
+	 * @param relationships
+	 * @param ases
+	 *            ASes that remain in the relationship graph
+	 * @return
+	 */
+	public static BitSet denseCores(AsRelationships relationships, BitSet ases) {
+		BitSet ret = new BitSet(relationships.adjacency()
+			.size());
+		for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+			if (denseCore(as, relationships)) {
+				ret.set(as);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a set of transit cores from the relationship graph. Transit
+	 * cores peer with dense cores and each other: an AS that is not a dense
+	 * core is a transit core if it has a peer-to-peer edge to a dense core or
+	 * to another transit core.
+	 * <p>
+	 * Transit cores are found by a breadth-first search from the dense cores
+	 * over reverse peer-to-peer edges, so each AS and edge is visited at most
+	 * once.
+	 *
+	 * @param relationships
+	 * @param ases
+	 *            ASes that remain in the relationship graph
+	 * @param denseCores
+	 * @return
+	 */
+	public static BitSet transitCores(AsRelationships relationships,
+			BitSet ases, BitSet denseCores) {
+		AsAdjacency adjacency = relationships.adjacency();
+		int nAs = adjacency.size();
+		int[] reverseEdges = adjacency.reverseEdges();
+		BitSet ret = new BitSet(nAs);
+		int[] queue = new int[nAs];
+		int head = 0;
+		int tail = 0;
+		for (int as = denseCores.nextSetBit(0); as >= 0; as = denseCores.nextSetBit(as + 1)) {
+			queue[tail++] = as;
+		}
+		int as;
+		int neighbour;
+		while (head < tail) {
+			as = queue[head++];
+			for (int e = adjacency.start(as); e < adjacency.end(as); e++) {
+				neighbour = adjacency.neighbour(e);
+				if (!ases.get(neighbour) || denseCores.get(neighbour)
+						|| ret.get(neighbour)) {
+					continue;
+				}
+
+				// Neighbour peers with this AS
+
+				if (relationships.get(reverseEdges[e]) == P2P) {
+					ret.set(neighbour);
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a set of outer cores from the relationship graph. An outer core
+	 * is a core that is neither a dense core or transit core.
+	 *
+	 * @param ases
+	 *            ASes that remain in the relationship graph
+	 * @param denseCores
+	 * @param transitCores
+	 * @return
+	 */
+	public static BitSet outerCores(BitSet ases, BitSet denseCores,
+			BitSet transitCores) {
+		BitSet ret = (BitSet) ases.clone();
+		ret.andNot(denseCores);
+		ret.andNot(transitCores);
+		return ret;
+	}
+
 }
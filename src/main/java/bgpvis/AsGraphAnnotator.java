@@ -1,26 +1,17 @@
 package bgpvis;
 
-import static bgpvis.AsPath.validate;
-import static bgpvis.util.StringUtil.join;
-import static bgpvis.util.StringUtil.trim;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bgpvis.etl.CorpusFile;
+import bgpvis.util.LineWriter;
+import bgpvis.util.Metrics;
 import bgpvis.util.MyFileWriter;
-import bgpvis.validation.ValidationResult;
-
-import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multiset;
+import bgpvis.validation.Rejections;
 
 public final class AsGraphAnnotator {
 	private static final Logger log = LoggerFactory.getLogger(AsGraphAnnotator.class);
@@ -29,6 +20,30 @@ public final class AsGraphAnnotator {
 	private static final double DEGREE_SIZE_RATIO = Double.parseDouble(System.getProperty("bgp.in.degree-size-ratio"));
 	private static final int TRANSIT_COUNT_THRESHOLD = Integer.parseInt(System.getProperty("bgp.in.transit-count-threshold"));
 
+	/**
+	 * Optional snapshot of the annotated graph, that Tasks 2 and 4 can read
+	 * instead of text.
+	 */
+	private static final String OUT_SNAPSHOT_FILE_PATH = System.getProperty("bgp.out.snapshot-file");
+
+	/**
+	 * Optional file of the lines that are not AS paths
+	 */
+	private static final String OUT_QUARANTINE_FILE_PATH = System.getProperty("bgp.out.quarantine-file");
+
+	/**
+	 * Metrics of each phase, next to the output file by default
+	 */
+	private static final String OUT_METRICS_FILE_PATH = System.getProperty(
+			"bgp.out.metrics-file", Metrics.filePath(OUT_FILE_PATH));
+
+	/**
+	 * Number of threads that count transit relationships. Counting is
+	 * sequential if this is 1.
+	 */
+	private static final int PARALLELISM = Integer.getInteger(
+			"bgp.in.parallelism", Runtime.getRuntime().availableProcessors());
+
 	/**
 	 * ASPATH attribute name is not present in Task 2 input file.
 	 */
@@ -39,106 +54,237 @@ public final class AsGraphAnnotator {
 	 */
 	private static final int EXPECTED_NUMBER_OF_AS_PATHS = 649412 * 2;
 
+	/**
+	 * Use for array sizing
+	 */
+	private static final int EXPECTED_PATH_LENGTH = 4;
+
 	private AsGraphAnnotator() {
 		// Private constructor, not meant to be instantiated
 	}
 
 	public static void main(String[] args) throws IOException {
 		long startTime = System.currentTimeMillis();
-		BufferedReader br = null;
 		File file = new File(IN_FILE_PATH);
-		String line = "";
-		ValidationResult validation;
-		List<String> asPaths = new ArrayList<String>(
-				EXPECTED_NUMBER_OF_AS_PATHS);
-		try {
-			br = new BufferedReader(new FileReader(file));
-			while ((line = br.readLine()) != null) {
-				line = trim(line);
 
-				// Skip lines that are not AS paths
-				// (such as the last two lines in Task 1 output file)
+		// Map each AS to an int id once at ingest, so that the AS graph is
+		// keyed by ints instead of strings. Each path is tokenized once and
+		// reused by every phase.
 
-				validation = validate(line, ASPATH_ATTRIBUTE_PRESENT);
-				if (validation.hasErrors()) {
-					log.warn("{}", validation);
-					continue;
-				}
-				asPaths.add(line);
-			}
+		AsDictionary dictionary = new AsDictionary();
+		AsPathCorpus asPaths = new AsPathCorpus(EXPECTED_NUMBER_OF_AS_PATHS,
+				EXPECTED_NUMBER_OF_AS_PATHS * EXPECTED_PATH_LENGTH);
+
+		// Read a binary corpus file from Task 1, or else a text file.
+		// Skip lines that are not AS paths
+		// (such as the last two lines in Task 1 output file)
 
-			// Phase 1 of Task 3 Algorithm 1
-			// Get neighbours of each AS
+		Metrics metrics = new Metrics(AsGraphAnnotator.class.getSimpleName());
+		Metrics.Phase phase = metrics.start("Load AS paths");
+		Rejections rejections = new Rejections(OUT_QUARANTINE_FILE_PATH);
+		int nPaths;
+		try {
+			nPaths = CorpusFile.load(file, ASPATH_ATTRIBUTE_PRESENT, asPaths,
+					dictionary, rejections);
+		} finally {
+			rejections.close();
+		}
+		phase.in(nPaths + rejections.total())
+			.out(nPaths)
+			.stop();
+		log.info("Map {} ASes to ids: Done!", dictionary.size());
 
-			Multimap<String, String> neighbours = AsGraph.neighboursByAs(asPaths);
+		// Phase 1 of Task 3 Algorithm 1
+		// Get neighbours of each AS
 
-			// Map of AS to its node degree
+		phase = metrics.start("Algorithm 1 Phase 1: neighbours");
+		AsAdjacency adjacency = AsAdjacency.of(asPaths, dictionary.size());
+		phase.in(asPaths.size())
+			.out(adjacency.edges())
+			.stop();
+		AnnotatedAsGraph graph = annotate(asPaths, adjacency, dictionary,
+				TRANSIT_COUNT_THRESHOLD, DEGREE_SIZE_RATIO, PARALLELISM,
+				metrics);
 
-			Map<String, Integer> nodeDegreeByAs = AsGraph.nodeDegreeByAs(neighbours);
-			log.info("Count node degree of all ASes: Done!");
+		phase = metrics.start("Write relationships");
+		int nLines = write(graph.relationships(), dictionary, OUT_FILE_PATH);
+		phase.in(adjacency.edges())
+			.out(nLines)
+			.stop();
+		file = new File(OUT_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		if (OUT_SNAPSHOT_FILE_PATH != null) {
+			phase = metrics.start("Write snapshot");
+			file = new File(OUT_SNAPSHOT_FILE_PATH);
+			graph.write(file);
+			phase.in(adjacency.edges())
+				.out(adjacency.edges())
+				.stop();
+			log.info("Saved {}", file.getAbsolutePath());
+		}
+		log.info("{}", rejections);
+		file = metrics.write(OUT_METRICS_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
 
-			// Phase 2 of Task 3 Algorithm 1
-			// Count the number of entries that infer an AS pair having a
-			// transit relationship
+	/**
+	 * Annotate the relationship of each AS pair. Based on Phases 2 and 3 of
+	 * Task 3 Algorithm 1, and Algorithm 2.
+	 *
+	 * @param asPaths
+	 * @param adjacency
+	 *            neighbours of each AS in the paths
+	 * @param dictionary
+	 * @param transitCountThreshold
+	 * @param degreeSizeRatio
+	 * @param parallelism
+	 *            number of threads that count transit relationships
+	 * @param metrics
+	 * @return
+	 */
+	static AnnotatedAsGraph annotate(AsPathCorpus asPaths,
+			AsAdjacency adjacency, AsDictionary dictionary,
+			int transitCountThreshold, double degreeSizeRatio,
+			int parallelism, Metrics metrics) {
+		int nAs = adjacency.size();
+		int nEdges = adjacency.edges();
+		int nPaths = asPaths.size();
 
-			Multiset<String> transitCustomerToProvider = AsGraph.countTransitRelationship(
-					asPaths, nodeDegreeByAs);
-			log.info("Count transit relationships: Done!");
+		// Map of AS to its node degree
 
-			// Phase 3 of Task 3 Algorithm 1
-			// Assign relationships to AS pairs
+		Metrics.Phase phase = metrics.start("Node degree");
+		int[] nodeDegreeByAs = AsGraph.nodeDegreeByAs(adjacency);
+		phase.in(nAs)
+			.out(nAs)
+			.stop();
+		log.info("Count node degree of all ASes: Done!");
 
-			Map<String, Map<String, String>> relationships = AsGraph.relationships(
-					asPaths, transitCustomerToProvider, TRANSIT_COUNT_THRESHOLD);
-			log.info("Annotate relationships: Done!");
+		// Top provider of each path is used by Phase 2 of Algorithm 1 and
+		// Phase 2 of Algorithm 2
 
-			// Phase 2 of Task 3 Algorithm 2
-			// Identify AS pairs that cannot have a peering relationship
+		phase = metrics.start("Top providers");
+		asPaths.indexTopProviders(nodeDegreeByAs);
+		phase.in(nPaths)
+			.out(nPaths)
+			.stop();
 
-			Multimap<String, String> nonPeers = AsGraph.nonPeers(asPaths,
-					nodeDegreeByAs, relationships);
-			log.info("Non-peers: Done!");
-			
-			// Phase 3 of Task 3 Algorithm 2
-			// Assign peering relationships to AS pairs
-			
-			AsGraph.peeringRelationships(asPaths, nodeDegreeByAs, relationships, nonPeers, DEGREE_SIZE_RATIO);
-			log.info("Assign peering relationships: Done!");
+		// Phase 2 of Task 3 Algorithm 1
+		// Count the number of entries that infer an AS pair having a
+		// transit relationship
 
-			List<String> out = toString(relationships);
-			file = MyFileWriter.write(out, OUT_FILE_PATH);
-			log.info("Saved {}", file.getAbsolutePath());
-		} finally {
-			if (br != null) {
-				br.close();
+		phase = metrics.start("Algorithm 1 Phase 2: transit counts");
+		int[] transitCustomerToProvider;
+		if (parallelism > 1) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				transitCustomerToProvider = AsGraph.countTransitRelationship(
+						asPaths, adjacency, pool);
+			} finally {
+				pool.shutdown();
 			}
+		} else {
+			transitCustomerToProvider = AsGraph.countTransitRelationship(
+					asPaths, adjacency);
 		}
-		long elapsedTime = System.currentTimeMillis() - startTime;
-		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+		phase.in(nPaths)
+			.out(nEdges)
+			.stop();
+		log.info("Count transit relationships on {} threads: Done!",
+				parallelism);
+
+		// Phase 3 of Task 3 Algorithm 1
+		// Assign relationships to AS pairs
+
+		phase = metrics.start("Algorithm 1 Phase 3: transit relationships");
+		AsRelationships relationships = AsGraph.relationships(adjacency,
+				transitCustomerToProvider, transitCountThreshold);
+		phase.in(nEdges)
+			.out(nEdges)
+			.stop();
+		log.info("Annotate relationships: Done!");
+
+		// Phase 2 of Task 3 Algorithm 2
+		// Identify AS pairs that cannot have a peering relationship
+
+		phase = metrics.start("Algorithm 2 Phase 2: non-peers");
+		boolean[] nonPeers = AsGraph.nonPeers(asPaths, nodeDegreeByAs,
+				relationships);
+		phase.in(nPaths)
+			.out(nEdges)
+			.stop();
+		log.info("Non-peers: Done!");
+		
+		// Phase 3 of Task 3 Algorithm 2
+		// Assign peering relationships to AS pairs
+		
+		phase = metrics.start("Algorithm 2 Phase 3: peering relationships");
+		AsGraph.peeringRelationships(asPaths, nodeDegreeByAs,
+				relationships, nonPeers, degreeSizeRatio);
+		phase.in(nPaths)
+			.out(nEdges)
+			.stop();
+		log.info("Assign peering relationships: Done!");
+		return new AnnotatedAsGraph(dictionary, relationships, nodeDegreeByAs,
+				transitCustomerToProvider, transitCountThreshold,
+				degreeSizeRatio);
 	}
 
 	/**
-	 * Output relationships in required format
+	 * Write relationships in required format, one line per AS pair, without
+	 * building a string for each line.
+	 *
+	 * @param out
 	 * @param relationships
-	 * @return
+	 * @param dictionary
+	 * @return number of lines
+	 * @throws IOException
 	 */
-	private static List<String> toString(
-			Map<String, Map<String, String>> relationships) {
-		List<String> ret = new ArrayList<String>(relationships.size());
-		List<String> values;
-		String as1, as2, relationship;
-		Map<String, String> temp;
-		for (Map.Entry<String, Map<String, String>> outer : relationships.entrySet()) {
-			as1 = outer.getKey();
-			temp = outer.getValue();
-			for (Map.Entry<String, String> inner : temp.entrySet()) {
-				as2 = inner.getKey();
-				relationship = inner.getValue();
-				values = Lists.newArrayList(as1, as2, relationship);
-				ret.add(join(values, " "));
+	static int write(LineWriter out, AsRelationships relationships,
+			AsDictionary dictionary) throws IOException {
+		int nAs = relationships.adjacency()
+			.size();
+		int ret = 0;
+		long as1;
+		AsRelationships.Cursor edges;
+		for (int as = 0; as < nAs; as++) {
+			as1 = dictionary.asNumber(as);
+			edges = relationships.edges(as);
+			while (edges.next()) {
+				if (edges.relationship() == AsGraph.NO_RELATIONSHIP) {
+					continue;
+				}
+				out.nextLine()
+					.write(as1)
+					.write(' ')
+					.write(dictionary.asNumber(edges.neighbour()))
+					.write(' ')
+					.write(AsGraph.relationship(edges.relationship()));
+				ret++;
 			}
 		}
 		return ret;
 	}
 
+	/**
+	 * Write relationships in required format to the file.
+	 *
+	 * @param relationships
+	 * @param dictionary
+	 * @param filePath
+	 *            gzipped if it ends with {@link LineWriter#GZIP_SUFFIX}
+	 * @return number of lines
+	 * @throws IOException
+	 */
+	static int write(AsRelationships relationships, AsDictionary dictionary,
+			String filePath) throws IOException {
+		LineWriter out = MyFileWriter.open(filePath);
+		try {
+			return write(out, relationships, dictionary);
+		} finally {
+			out.close();
+		}
+	}
+
 }
@@ -0,0 +1,411 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bgpvis.util.Metrics;
+
+/**
+ * Checks the stages that replaced a slower stage against the stage they
+ * replaced, on random AS paths from a seed:
+ * <ul>
+ * <li>{@link IncrementalAsAnnotator} against Task 3 run again on the live
+ * paths, after each batch of random announcements and withdrawals, and the
+ * changes it reports against the relationships that changed</li>
+ * <li>{@link AsGraph#transitCores(AsRelationships, BitSet, BitSet)} against a
+ * fixpoint of the definition of transit cores</li>
+ * <li>{@link AsGraph#prune(AsRelationships, BitSet, int)} against
+ * {@link AsGraph#stubs(AsRelationships, BitSet)} for round 0 and
+ * {@link AsGraph#regionalIsps(AsRelationships, BitSet, BitSet)} for each
+ * further round</li>
+ * </ul>
+ * Transit cores and pruning are checked on the relationships of Task 3, and
+ * on random relationships with random ASes removed, as Task 3 leaves few
+ * peers. Throws {@link IllegalStateException} on the first mismatch.
+ */
+final class AsGraphCheck {
+	private static final Logger log = LoggerFactory.getLogger(AsGraphCheck.class);
+	private static final double DEGREE_SIZE_RATIO = Double.parseDouble(System.getProperty("bgp.in.degree-size-ratio"));
+	private static final int TRANSIT_COUNT_THRESHOLD = Integer.parseInt(System.getProperty("bgp.in.transit-count-threshold"));
+	private static final long SEED = Long.getLong("bgp.in.seed", 1);
+
+	/**
+	 * Number of random AS paths
+	 */
+	private static final int AS_PATHS = Integer.getInteger("bgp.in.as-paths",
+			10000);
+
+	/**
+	 * Number of batches of random announcements and withdrawals
+	 */
+	private static final int BATCHES = Integer.getInteger("bgp.in.batches",
+			20);
+
+	private static final int PATHS_PER_AS = 8;
+	private static final int MIN_ASES = 100;
+	private static final int TIER_1_ASES = 8;
+	private static final double MULTI_HOMED = 0.3;
+
+	/**
+	 * Providers are picked with probability skewed to small AS numbers
+	 */
+	private static final double SKEW = 2;
+
+	private static final int BATCH_SIZE_DIVISOR = 50;
+	private static final int MAX_ROUNDS = 5;
+	private static final double REMOVED_ASES = 0.1;
+
+	private AsGraphCheck() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	public static void main(String[] args) {
+		long startTime = System.currentTimeMillis();
+		Random random = new Random(SEED);
+		AsDictionary dictionary = new AsDictionary();
+		AsPathCorpus asPaths = asPaths(random, dictionary);
+		log.info("Seed {}: {} AS paths, {} ASes", SEED, asPaths.size(),
+				dictionary.size());
+		checkIncremental(asPaths, dictionary, random);
+
+		// Relationships of Task 3, and random relationships
+
+		AsAdjacency adjacency = AsAdjacency.of(asPaths, dictionary.size());
+		AsRelationships relationships = annotate(asPaths, adjacency,
+				dictionary);
+		BitSet ases = AsClassifier.ases(relationships);
+		checkTransitCores(relationships, ases, "Task 3");
+		checkPrune(relationships, ases, "Task 3");
+		relationships = randomRelationships(adjacency, random);
+		ases = AsClassifier.ases(relationships);
+		for (int as = ases.nextSetBit(0); as >= 0; as = ases.nextSetBit(as + 1)) {
+			if (random.nextDouble() < REMOVED_ASES) {
+				ases.clear(as);
+			}
+		}
+		checkTransitCores(relationships, ases, "random");
+		checkPrune(relationships, ases, "random");
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
+
+	/**
+	 * Random valley-free AS paths, without AS prepending as in Task 1 output.
+	 * Every AS but the tier-1 ASes has one or two providers with a smaller AS
+	 * number, skewed to small AS numbers so that a few ASes have a large node
+	 * degree. A path goes up from one AS to a tier-1 AS, and down to another
+	 * AS from the first AS that both go up through, or from a tier-1 AS that
+	 * peers with the first tier-1 AS.
+	 */
+	private static AsPathCorpus asPaths(Random random,
+			AsDictionary dictionary) {
+		int nAs = Math.max(MIN_ASES, AS_PATHS / PATHS_PER_AS);
+		int[][] providers = new int[nAs][];
+		for (int as = TIER_1_ASES; as < nAs; as++) {
+			providers[as] = new int[random.nextDouble() < MULTI_HOMED ? 2 : 1];
+			for (int i = 0; i < providers[as].length; i++) {
+				providers[as][i] = (int) (as * Math.pow(random.nextDouble(),
+						SKEW));
+			}
+		}
+		AsPathCorpus ret = new AsPathCorpus();
+		int[] up1 = new int[nAs];
+		int[] up2 = new int[nAs];
+		int[] asPath = new int[2 * nAs];
+		int n1;
+		int n2;
+		int top1;
+		int top2;
+		int length;
+		for (int p = 0; p < AS_PATHS; p++) {
+			n1 = up(random.nextInt(nAs), providers, random, up1);
+			n2 = up(random.nextInt(nAs), providers, random, up2);
+
+			// Top of the path is the first AS of the first path that the
+			// second path goes up through
+
+			top1 = n1 - 1;
+			top2 = n2 - 1;
+			search: for (int i = 0; i < n1; i++) {
+				for (int j = 0; j < n2; j++) {
+					if (up1[i] == up2[j]) {
+						top1 = i;
+						top2 = j;
+						break search;
+					}
+				}
+			}
+			length = 0;
+			for (int i = 0; i <= top1; i++) {
+				asPath[length++] = dictionary.id(up1[i] + 1L);
+			}
+			for (int j = up1[top1] == up2[top2] ? top2 - 1 : top2; j >= 0; j--) {
+				asPath[length++] = dictionary.id(up2[j] + 1L);
+			}
+			ret.add(asPath, length);
+		}
+		return ret;
+	}
+
+	/**
+	 * Go up from the AS to a tier-1 AS through random providers.
+	 *
+	 * @return number of ASes on the way up, including both ends
+	 */
+	private static int up(int as, int[][] providers, Random random, int[] ret) {
+		int n = 0;
+		ret[n++] = as;
+		while (as >= TIER_1_ASES) {
+			as = providers[as][random.nextInt(providers[as].length)];
+			ret[n++] = as;
+		}
+		return n;
+	}
+
+	/**
+	 * Task 3 on the AS paths, on one thread.
+	 */
+	private static AsRelationships annotate(AsPathCorpus asPaths,
+			AsAdjacency adjacency, AsDictionary dictionary) {
+		return AsGraphAnnotator.annotate(asPaths, adjacency, dictionary,
+				TRANSIT_COUNT_THRESHOLD, DEGREE_SIZE_RATIO, 1,
+				new Metrics(AsGraphCheck.class.getSimpleName()))
+			.relationships();
+	}
+
+	/**
+	 * Random relationships, the same in both directions of each AS pair.
+	 */
+	private static AsRelationships randomRelationships(AsAdjacency adjacency,
+			Random random) {
+		byte[] codes = { AsGraph.P2C, AsGraph.C2P, AsGraph.P2P, AsGraph.S2S };
+		AsRelationships ret = new AsRelationships(adjacency);
+		int[] reverseEdges = adjacency.reverseEdges();
+		byte code;
+		for (int as = 0; as < adjacency.size(); as++) {
+			for (int e = adjacency.start(as); e < adjacency.end(as); e++) {
+				if (adjacency.neighbour(e) > as) {
+					code = codes[random.nextInt(codes.length)];
+					ret.set(e, code);
+					ret.set(reverseEdges[e], AsGraph.reverse(code));
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Announce half of the paths, then announce and withdraw random paths in
+	 * batches, and compare the relationships after each batch.
+	 */
+	private static void checkIncremental(AsPathCorpus asPaths,
+			AsDictionary dictionary, Random random) {
+		IncrementalAsGraph graph = new IncrementalAsGraph(dictionary);
+		IncrementalAsAnnotator annotator = new IncrementalAsAnnotator(graph,
+				TRANSIT_COUNT_THRESHOLD, DEGREE_SIZE_RATIO);
+		for (int p = 0; p < asPaths.size(); p++) {
+			if (random.nextBoolean()) {
+				graph.announce(asPaths.toArray(p), asPaths.length(p));
+			}
+		}
+		AsRelationships previous = null;
+		AsRelationships relationships;
+		int batchSize = Math.max(1, asPaths.size() / BATCH_SIZE_DIVISOR);
+		int[] asPath;
+		int nChanges = 0;
+		for (int batch = 0; batch <= BATCHES; batch++) {
+			if (batch > 0) {
+				for (int i = 0; i < batchSize; i++) {
+					asPath = asPaths.toArray(random.nextInt(asPaths.size()));
+					if (random.nextBoolean()) {
+						graph.announce(asPath, asPath.length);
+					} else {
+						graph.withdraw(asPath, asPath.length);
+					}
+				}
+			}
+			List<IncrementalAsAnnotator.Change> changes = annotator.annotate();
+			relationships = annotate(graph);
+			check(graph, annotator, previous, relationships, changes, batch);
+			previous = relationships;
+			nChanges += changes.size();
+		}
+		log.info("Incremental annotation: {} batches, {} relationships changed: Done!",
+				BATCHES, nChanges);
+	}
+
+	/**
+	 * Task 3 on the live paths of the graph.
+	 */
+	private static AsRelationships annotate(IncrementalAsGraph graph) {
+		AsPathCorpus paths = graph.paths();
+		AsPathCorpus live = new AsPathCorpus();
+		for (int p : graph.livePaths()) {
+			live.add(paths.toArray(p), paths.length(p));
+		}
+		return annotate(live, AsAdjacency.of(live, graph.dictionary()
+			.size()), graph.dictionary());
+	}
+
+	/**
+	 * Compare both directions of every AS pair that has been adjacent, and
+	 * check that the changes are exactly the AS pairs whose relationship
+	 * differs from the previous batch.
+	 */
+	private static void check(IncrementalAsGraph graph,
+			IncrementalAsAnnotator annotator, AsRelationships previous,
+			AsRelationships relationships,
+			List<IncrementalAsAnnotator.Change> changes, int batch) {
+		int nChanged = 0;
+		int as;
+		int neighbour;
+		byte code;
+		for (int edge = 0; edge < graph.edgeCount(); edge++) {
+			for (int direction = 0; direction < 2; direction++) {
+				as = direction == 0 ? graph.as1(edge) : graph.as2(edge);
+				neighbour = direction == 0 ? graph.as2(edge) : graph.as1(edge);
+				code = relationships.get(as, neighbour);
+				if (annotator.get(as, neighbour) != code) {
+					throw new IllegalStateException(concat("Batch [", batch,
+							"]: relationship of AS [", as, "] to AS [",
+							neighbour, "] is [", annotator.get(as, neighbour),
+							"], expected [", code, "]"));
+				}
+				if (get(previous, as, neighbour) != code) {
+					nChanged++;
+				}
+			}
+		}
+		for (IncrementalAsAnnotator.Change change : changes) {
+			if (change.oldRelationship() != get(previous, change.as1(),
+					change.as2())
+					|| change.newRelationship() != relationships.get(
+							change.as1(), change.as2())) {
+				throw new IllegalStateException(concat("Batch [", batch,
+						"]: wrong change of AS [", change.as1(), "] to AS [",
+						change.as2(), "]"));
+			}
+		}
+		if (changes.size() != nChanged) {
+			throw new IllegalStateException(concat("Batch [", batch, "]: [",
+					changes.size(), "] changes, expected [", nChanged, "]"));
+		}
+	}
+
+	private static byte get(AsRelationships relationships, int as,
+			int neighbour) {
+		if (relationships == null) {
+			return AsGraph.NO_RELATIONSHIP;
+		}
+		return relationships.get(as, neighbour);
+	}
+
+	/**
+	 * Transit cores of the cores that remain after pruning, against a
+	 * fixpoint: an AS that remains and is not a dense core is a transit core
+	 * if it has a peer-to-peer edge to a dense core or to another transit
+	 * core. Transit cores are added until a pass over the ASes adds none.
+	 */
+	private static void checkTransitCores(AsRelationships relationships,
+			BitSet ases, String graph) {
+		BitSet cores = (BitSet) ases.clone();
+		AsGraph.prune(relationships, cores, AsClassifier.PRUNING_ROUNDS);
+		BitSet denseCores = AsGraph.denseCores(relationships, cores);
+		BitSet actual = AsGraph.transitCores(relationships, cores, denseCores);
+		BitSet expected = new BitSet(relationships.adjacency()
+			.size());
+		boolean changed = true;
+		AsRelationships.Cursor edges;
+		int neighbour;
+		while (changed) {
+			changed = false;
+			for (int as = cores.nextSetBit(0); as >= 0; as = cores.nextSetBit(as + 1)) {
+				if (denseCores.get(as) || expected.get(as)) {
+					continue;
+				}
+				edges = relationships.edges(as);
+				while (edges.next()) {
+					neighbour = edges.neighbour();
+					if (edges.relationship() == AsGraph.P2P
+							&& (denseCores.get(neighbour) || expected.get(neighbour))) {
+						expected.set(as);
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+		if (!actual.equals(expected)) {
+			BitSet diff = (BitSet) actual.clone();
+			diff.xor(expected);
+			int as = diff.nextSetBit(0);
+			throw new IllegalStateException(concat(graph, " graph: AS [",
+					as, "] is ", actual.get(as) ? "" : "not ",
+					"a transit core, expected ", expected.get(as) ? "" : "not ",
+					"a transit core"));
+		}
+		log.info("Transit cores of {} graph: {} cores, {} dense cores, {} transit cores: Done!",
+				graph, cores.cardinality(), denseCores.cardinality(),
+				actual.cardinality());
+	}
+
+	/**
+	 * Pruning for each number of rounds up to {@link #MAX_ROUNDS}, against
+	 * stubs for round 0 and regional ISPs of the ASes pruned so far for each
+	 * further round. Two rounds are the stubs and regional ISPs stages of
+	 * Task 4 as they were.
+	 */
+	private static void checkPrune(AsRelationships relationships, BitSet ases,
+			String graph) {
+		int nAs = relationships.adjacency()
+			.size();
+		int[] expected = new int[nAs];
+		BitSet remaining;
+		BitSet pruned;
+		BitSet round;
+		BitSet actualRemaining;
+		int[] actual;
+		for (int rounds = 0; rounds <= MAX_ROUNDS; rounds++) {
+			Arrays.fill(expected, -1);
+			remaining = (BitSet) ases.clone();
+			pruned = new BitSet(nAs);
+			for (int r = 0; r < rounds; r++) {
+				if (r == 0) {
+					round = AsGraph.stubs(relationships, remaining);
+				} else {
+					round = AsGraph.regionalIsps(relationships, remaining,
+							pruned);
+				}
+				for (int as = round.nextSetBit(0); as >= 0; as = round.nextSetBit(as + 1)) {
+					expected[as] = r;
+				}
+				remaining.andNot(round);
+				pruned.or(round);
+			}
+			actualRemaining = (BitSet) ases.clone();
+			actual = AsGraph.prune(relationships, actualRemaining, rounds);
+			for (int as = 0; as < nAs; as++) {
+				if (actual[as] != expected[as]) {
+					throw new IllegalStateException(concat(graph, " graph, [",
+							rounds, "] rounds: AS [", as,
+							"] pruned in round [", actual[as],
+							"], expected [", expected[as], "]"));
+				}
+			}
+			if (!actualRemaining.equals(remaining)) {
+				throw new IllegalStateException(concat(graph, " graph, [",
+						rounds, "] rounds: remaining ASes differ"));
+			}
+		}
+		log.info("Pruning of {} graph: {} ASes, up to {} rounds: Done!",
+				graph, ases.cardinality(), MAX_ROUNDS);
+	}
+
+}
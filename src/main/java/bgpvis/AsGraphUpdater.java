@@ -0,0 +1,327 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+import static bgpvis.util.StringUtil.trim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bgpvis.etl.CorpusFile;
+import bgpvis.util.LineWriter;
+import bgpvis.util.MyFileWriter;
+import bgpvis.validation.Rejections;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+/**
+ * Applies announce and withdraw records to the AS graph of Task 1 output, and
+ * saves the ASes whose node degree changed.
+ * <p>
+ * Each line of the updates file is an announce ("A") or withdraw ("W")
+ * record, followed by the AS path, for example {@code A 3356 1299 13335}.
+ * Output has one line per changed AS: the AS, its node degree before the
+ * updates and its node degree after the updates. Optional relationships
+ * output has one line per relationship that changed: the AS, its neighbour,
+ * the relationship before the updates and the relationship after the updates
+ * ("none" if the AS pair is not adjacent).
+ */
+public final class AsGraphUpdater {
+	private static final Logger log = LoggerFactory.getLogger(AsGraphUpdater.class);
+
+	/**
+	 * AS paths before the updates, in Task 1 output or a corpus file
+	 */
+	private static final String IN_FILE_PATH = System.getProperty("bgp.in.file");
+	private static final String IN_UPDATES_FILE_PATH = System.getProperty("bgp.in.updates-file");
+	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
+
+	/**
+	 * Optional corpus file of the AS paths after the updates
+	 */
+	private static final String OUT_CORPUS_FILE_PATH = System.getProperty("bgp.out.corpus-file");
+
+	/**
+	 * Optional output of the relationships that changed, which needs the
+	 * transit count threshold and degree size ratio of Task 3
+	 */
+	private static final String OUT_RELATIONSHIPS_FILE_PATH = System.getProperty("bgp.out.relationships-file");
+
+	/**
+	 * Relationship label of an AS pair that is not adjacent
+	 */
+	private static final String NO_RELATIONSHIP = "none";
+
+	/**
+	 * Optional file of the input lines and update records that are rejected
+	 */
+	private static final String OUT_QUARANTINE_FILE_PATH = System.getProperty("bgp.out.quarantine-file");
+
+	private static final String ANNOUNCE = "A";
+	private static final String WITHDRAW = "W";
+
+	/**
+	 * Categories of update records that are rejected
+	 */
+	private static final String NOT_A_RECORD = concat("Record must start with ",
+			ANNOUNCE, " or ", WITHDRAW);
+	private static final String NO_AS = "Record must contain at least 1 AS";
+	private static final String AS_NOT_A_NUMBER = "AS must be a number";
+	private static final String NOT_ANNOUNCED = "Withdrawn AS path is not announced";
+
+	/**
+	 * Tokens of an update record, without the empty tokens between
+	 * consecutive whitespace
+	 */
+	private static final Splitter TOKENS = Splitter.on(CharMatcher.WHITESPACE)
+		.omitEmptyStrings();
+
+	/**
+	 * ASPATH attribute name is not present in Task 1 output file.
+	 */
+	private static final boolean ASPATH_ATTRIBUTE_PRESENT = false;
+
+	/**
+	 * Use for collection sizing
+	 */
+	private static final int EXPECTED_NUMBER_OF_AS_PATHS = 649412 * 2;
+
+	/**
+	 * Use for array sizing
+	 */
+	private static final int EXPECTED_PATH_LENGTH = 4;
+
+	private AsGraphUpdater() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	public static void main(String[] args) throws IOException {
+		long startTime = System.currentTimeMillis();
+		AsDictionary dictionary = new AsDictionary();
+		AsPathCorpus asPaths = new AsPathCorpus(EXPECTED_NUMBER_OF_AS_PATHS,
+				EXPECTED_NUMBER_OF_AS_PATHS * EXPECTED_PATH_LENGTH);
+		Rejections rejections = new Rejections(OUT_QUARANTINE_FILE_PATH);
+		IncrementalAsGraph graph;
+		IncrementalAsAnnotator annotator = null;
+		int nRecords;
+		try {
+			CorpusFile.load(new File(IN_FILE_PATH), ASPATH_ATTRIBUTE_PRESENT,
+					asPaths, dictionary, rejections);
+
+			// Announce the initial paths, and take the node degrees as the
+			// baseline of the updates
+
+			graph = new IncrementalAsGraph(dictionary);
+			int[] buf = new int[EXPECTED_PATH_LENGTH];
+			int length;
+			for (int p = 0; p < asPaths.size(); p++) {
+				length = asPaths.length(p);
+				if (length > buf.length) {
+					buf = new int[length];
+				}
+				for (int i = 0; i < length; i++) {
+					buf[i] = asPaths.hop(asPaths.start(p) + i);
+				}
+				graph.announce(buf, length);
+			}
+			asPaths = null;
+			graph.commit();
+			log.info("Initial graph: {} AS paths, {} AS pairs",
+					graph.livePathCount(), graph.liveEdgeCount());
+
+			// Annotate the initial graph, so that only AS pairs affected by the
+			// updates are annotated again
+
+			if (OUT_RELATIONSHIPS_FILE_PATH != null) {
+				annotator = new IncrementalAsAnnotator(graph,
+						Integer.parseInt(System.getProperty("bgp.in.transit-count-threshold")),
+						Double.parseDouble(System.getProperty("bgp.in.degree-size-ratio")));
+				annotator.annotate();
+				log.info("Annotate initial relationships: Done!");
+			}
+			nRecords = update(graph, new File(IN_UPDATES_FILE_PATH),
+					rejections);
+		} finally {
+			rejections.close();
+		}
+		log.info("{}", rejections);
+		int[] changed = graph.changedAses();
+		log.info("Applied {} update records: {} AS paths, {} AS pairs, {} ASes changed node degree",
+				nRecords, graph.livePathCount(), graph.liveEdgeCount(),
+				changed.length);
+		LineWriter out = MyFileWriter.open(OUT_FILE_PATH);
+		try {
+			for (int as : changed) {
+				out.nextLine()
+					.write(dictionary.asNumber(as))
+					.write(' ')
+					.write(graph.committedDegree(as))
+					.write(' ')
+					.write(graph.degree(as));
+			}
+		} finally {
+			out.close();
+		}
+		File file = new File(OUT_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		if (annotator != null) {
+			List<IncrementalAsAnnotator.Change> changes = annotator.annotate();
+			log.info("{} relationships changed", changes.size());
+			out = MyFileWriter.open(OUT_RELATIONSHIPS_FILE_PATH);
+			try {
+				for (IncrementalAsAnnotator.Change change : changes) {
+					out.nextLine()
+						.write(dictionary.asNumber(change.as1()))
+						.write(' ')
+						.write(dictionary.asNumber(change.as2()))
+						.write(' ')
+						.write(relationship(change.oldRelationship()))
+						.write(' ')
+						.write(relationship(change.newRelationship()));
+				}
+			} finally {
+				out.close();
+			}
+			file = new File(OUT_RELATIONSHIPS_FILE_PATH);
+			log.info("Saved {}", file.getAbsolutePath());
+		}
+		if (OUT_CORPUS_FILE_PATH != null) {
+			file = new File(OUT_CORPUS_FILE_PATH);
+			CorpusFile.write(file, graph.paths(), graph.livePaths(), dictionary);
+			log.info("Saved {}", file.getAbsolutePath());
+		}
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
+
+	private static String relationship(byte code) {
+		if (code == AsGraph.NO_RELATIONSHIP) {
+			return NO_RELATIONSHIP;
+		}
+		return AsGraph.relationship(code);
+	}
+
+	/**
+	 * Apply each announce and withdraw record in the file to the graph. Skip
+	 * records that are invalid, or have an AS path that contains AS sets, and
+	 * count them in the rejections. Compress AS prepending before applying
+	 * the record.
+	 *
+	 * @param graph
+	 * @param file
+	 * @param rejections
+	 *            records that are not applied
+	 * @return number of records applied
+	 * @throws IOException
+	 */
+	public static int update(IncrementalAsGraph graph, File file,
+			Rejections rejections) throws IOException {
+		AsDictionary dictionary = graph.dictionary();
+		BufferedReader br = null;
+		String line;
+		List<String> tokens;
+		long[] ases = new long[EXPECTED_PATH_LENGTH];
+		int[] buf = new int[EXPECTED_PATH_LENGTH];
+		int nAs;
+		int length;
+		int ret = 0;
+		int id;
+		boolean announce;
+		try {
+			br = new BufferedReader(new FileReader(file));
+			while ((line = br.readLine()) != null) {
+				line = trim(line);
+				if (line.isEmpty()) {
+					continue;
+				}
+				tokens = TOKENS.splitToList(line);
+				announce = ANNOUNCE.equals(tokens.get(0));
+				if (!announce && !WITHDRAW.equals(tokens.get(0))) {
+					rejections.reject(NOT_A_RECORD, line);
+					continue;
+				}
+				if (AsPath.containsAsSet(line)) {
+					rejections.reject(Rejections.AS_SET, line);
+					continue;
+				}
+				nAs = tokens.size() - 1;
+				if (nAs == 0) {
+					rejections.reject(NO_AS, line);
+					continue;
+				}
+
+				// Parse every AS before any of them is added to the
+				// dictionary, so that a bad record leaves no trace
+
+				if (nAs > ases.length) {
+					ases = new long[nAs];
+					buf = new int[nAs];
+				}
+				if (!parse(tokens, ases)) {
+					rejections.reject(AS_NOT_A_NUMBER, line);
+					continue;
+				}
+
+				// Withdrawn AS path that has an unknown AS was never
+				// announced, so do not add the AS to the dictionary
+
+				length = 0;
+				id = 0;
+				for (int i = 0; i < nAs; i++) {
+					if (announce) {
+						id = dictionary.id(ases[i]);
+					} else {
+						id = dictionary.indexOf(ases[i]);
+						if (id < 0) {
+							break;
+						}
+					}
+
+					// Compress AS prepending
+
+					if (length == 0 || buf[length - 1] != id) {
+						buf[length++] = id;
+					}
+				}
+				if (announce) {
+					graph.announce(buf, length);
+				} else if (id < 0 || !graph.withdraw(buf, length)) {
+					rejections.reject(NOT_ANNOUNCED, line);
+					continue;
+				}
+				ret++;
+			}
+		} finally {
+			if (br != null) {
+				br.close();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse the AS tokens of a record, which follow the record type.
+	 *
+	 * @param tokens
+	 * @param ases
+	 *            AS numbers, large enough for the tokens
+	 * @return false if an AS is not a number
+	 */
+	private static boolean parse(List<String> tokens, long[] ases) {
+		try {
+			for (int i = 1; i < tokens.size(); i++) {
+				ases[i - 1] = AsDictionary.parse(tokens.get(i));
+			}
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		return true;
+	}
+
+}
@@ -2,6 +2,7 @@ package bgpvis;
 
 import static bgpvis.util.StringUtil.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -10,9 +11,11 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bgpvis.util.LineWriter;
 import bgpvis.validation.ValidationResult;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 
 public final class AsPath {
@@ -29,6 +32,14 @@ public final class AsPath {
 	 */
 	private static final CharMatcher INPUT_AS_SEPARATOR = CharMatcher.WHITESPACE.or(CURLY_BRACES).or(COMMA);
 
+	/**
+	 * AS tokens of the AS path, without the empty tokens between consecutive
+	 * separators
+	 */
+	private static final Splitter INPUT_AS_TOKENS = Splitter.on(
+			INPUT_AS_SEPARATOR)
+		.omitEmptyStrings();
+
 	private AsPath() {
 		// Private constructor, not meant to be instantiated
 	}
@@ -37,6 +48,18 @@ public final class AsPath {
 		return split(asPath, CharMatcher.WHITESPACE);
 	}
 
+	/**
+	 * Returns the AS tokens of an input AS path, split on every separator
+	 * that the validator accepts, with empty tokens dropped.
+	 *
+	 * @param asPath
+	 *            AS path without the ASPATH attribute name
+	 * @return
+	 */
+	public static List<String> asTokens(String asPath) {
+		return INPUT_AS_TOKENS.splitToList(asPath);
+	}
+
 	/**
 	 * Curly braces in the AS path indicates the presence of AS set.
 	 * 
@@ -107,6 +130,114 @@ public final class AsPath {
 		return join(result, OUTPUT_AS_SEPARATOR);
 	}
 
+	/**
+	 * Compresses AS prepending by removing duplicate ASes that appear in
+	 * sequence in a AS path, in place.
+	 * 
+	 * @param asPath
+	 *            AS numbers
+	 * @param length
+	 *            number of ASes in the path
+	 * @return number of ASes left in the path
+	 */
+	public static int removeDuplicateAs(long[] asPath, int length) {
+		int ret = 0;
+		for (int i = 0; i < length; i++) {
+
+			// Skip duplicate ASes that appear in sequence
+
+			if (ret > 0 && asPath[ret - 1] == asPath[i]) {
+				continue;
+			}
+			asPath[ret++] = asPath[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the AS path in output format.
+	 * 
+	 * @param asPath
+	 *            AS numbers
+	 * @param length
+	 *            number of ASes in the path
+	 * @return
+	 */
+	public static String toString(long[] asPath, int length) {
+		StringBuilder sb = new StringBuilder(length * 6);
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				sb.append(OUTPUT_AS_SEPARATOR);
+			}
+			sb.append(asPath[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write the AS path in output format, without building a string.
+	 *
+	 * @param out
+	 * @param asPath
+	 *            AS numbers
+	 * @param length
+	 *            number of ASes in the path
+	 * @throws IOException
+	 */
+	public static void write(LineWriter out, long[] asPath, int length)
+			throws IOException {
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				out.write(OUTPUT_AS_SEPARATOR);
+			}
+			out.write(asPath[i]);
+		}
+	}
+
+	public static boolean isValid(String asPath) {
+		boolean attributePresent = true;
+		return isValid(asPath, attributePresent);
+	}
+
+	/**
+	 * Same rules as {@link #validate(String, boolean)}, without building the
+	 * tokens or the error messages. Tokens are separated by each separator
+	 * character, so empty tokens are allowed, as in the validator.
+	 * 
+	 * @param asPath
+	 * @param attributePresent
+	 * @return true if the AS path has no validation errors
+	 */
+	public static boolean isValid(String asPath, boolean attributePresent) {
+		if (Strings.isNullOrEmpty(asPath)) {
+			return false;
+		}
+		int length = asPath.length();
+		int i = 0;
+		while (i < length && !INPUT_AS_SEPARATOR.matches(asPath.charAt(i))) {
+			i++;
+		}
+
+		// First token is the attribute label, followed by at least 1 AS
+
+		if (attributePresent && (i == length
+				|| i != ASPATH_ATTRIBUTE.length()
+				|| !asPath.startsWith(ASPATH_ATTRIBUTE))) {
+			return false;
+		}
+		char c;
+		for (i++; i < length; i++) {
+			c = asPath.charAt(i);
+
+			// AS token is a number
+
+			if ((c < '0' || c > '9') && !INPUT_AS_SEPARATOR.matches(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public static ValidationResult validate(String asPath) {
 		boolean attributePresent = true;
 		return validate(asPath, attributePresent);
@@ -0,0 +1,241 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.util.Arrays;
+
+import bgpvis.util.Events;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * AS paths that are tokenized once and held as AS ids in one flat array.
+ * <p>
+ * The hops of path {@code p} are held in {@code hops[offsets[p]]} to
+ * {@code hops[offsets[p + 1] - 1]}. Once node degrees are known, the index of
+ * the top provider of every path is cached, so that each phase of the AS
+ * graph annotation reads the paths without splitting strings or rescanning
+ * for the top provider.
+ */
+public final class AsPathCorpus {
+	private int[] hops;
+	private int[] offsets;
+	private int size;
+	private int[] topProviders;
+
+	public AsPathCorpus() {
+		this(16, 64);
+	}
+
+	/**
+	 * @param expectedPaths
+	 *            expected number of AS paths, used for array sizing
+	 * @param expectedHops
+	 *            expected number of ASes over all paths, used for array sizing
+	 */
+	public AsPathCorpus(int expectedPaths, int expectedHops) {
+		hops = new int[Math.max(expectedHops, 1)];
+		offsets = new int[Math.max(expectedPaths, 1) + 1];
+	}
+
+	/**
+	 * Append an AS path.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @return index of the path
+	 */
+	public int add(int... asPath) {
+		return add(asPath, asPath.length);
+	}
+
+	/**
+	 * Append the first ASes of the array as an AS path.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return index of the path
+	 */
+	public int add(int[] asPath, int length) {
+		ensureCapacity(length);
+		int start = offsets[size];
+		System.arraycopy(asPath, 0, hops, start, length);
+		return commit(start + length);
+	}
+
+	/**
+	 * Tokenize an AS path and append the id of each AS.
+	 *
+	 * @param asPath
+	 *            ASes separated by whitespace
+	 * @param dictionary
+	 * @return index of the path
+	 * @throws IllegalArgumentException
+	 *             if an AS is not a number
+	 */
+	public int add(String asPath, AsDictionary dictionary) {
+		int length = asPath.length();
+		int end = offsets[size];
+		int i = 0;
+		int tokenStart;
+		while (i < length) {
+			if (CharMatcher.WHITESPACE.matches(asPath.charAt(i))) {
+				i++;
+				continue;
+			}
+			tokenStart = i;
+			while (i < length
+					&& !CharMatcher.WHITESPACE.matches(asPath.charAt(i))) {
+				i++;
+			}
+			if (end == hops.length) {
+				hops = Arrays.copyOf(hops, grow(hops.length, 1));
+			}
+			hops[end++] = dictionary.id(AsDictionary.parse(asPath, tokenStart,
+					i));
+		}
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, grow(offsets.length, 1));
+		}
+		return commit(end);
+	}
+
+	private int commit(int end) {
+		offsets[size + 1] = end;
+		topProviders = null;
+		return size++;
+	}
+
+	private void ensureCapacity(int nHops) {
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, grow(offsets.length, 1));
+		}
+		int required = offsets[size] + nHops;
+		if (required > hops.length) {
+			hops = Arrays.copyOf(hops, grow(hops.length, required - hops.length));
+		}
+	}
+
+	private static int grow(int capacity, int minGrowth) {
+		return capacity + Math.max(minGrowth, capacity >> 1);
+	}
+
+	/**
+	 * Number of AS paths.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of ASes over all paths.
+	 *
+	 * @return
+	 */
+	public int hops() {
+		return offsets[size];
+	}
+
+	/**
+	 * Position of the first AS of the path in the flat array.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public int start(int path) {
+		return offsets[path];
+	}
+
+	/**
+	 * Position after the last AS of the path in the flat array.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public int end(int path) {
+		return offsets[path + 1];
+	}
+
+	/**
+	 * Number of ASes in the path.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public int length(int path) {
+		return offsets[path + 1] - offsets[path];
+	}
+
+	/**
+	 * AS id at the given position of the flat array.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int hop(int index) {
+		return hops[index];
+	}
+
+	/**
+	 * Returns a copy of the AS ids of the path.
+	 *
+	 * @param path
+	 * @return
+	 */
+	public int[] toArray(int path) {
+		return Arrays.copyOfRange(hops, offsets[path], offsets[path + 1]);
+	}
+
+	/**
+	 * Find the top provider (AS with the largest node degree) of every path
+	 * and cache its index.
+	 *
+	 * @param nodeDegreeByAs
+	 */
+	public void indexTopProviders(int[] nodeDegreeByAs) {
+		int[] ret = new int[size];
+		int j;
+		int max;
+		int degree;
+		for (int p = 0; p < size; p++) {
+			j = -1;
+			max = 0;
+			for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+				degree = nodeDegreeByAs[hops[i]];
+				if (degree > max) {
+					max = degree;
+					j = i - offsets[p];
+				}
+			}
+			ret[p] = j;
+			if (Events.PATH_LENGTH_THRESHOLD > 0
+					&& offsets[p + 1] - offsets[p] >= Events.PATH_LENGTH_THRESHOLD) {
+				Events.path("indexTopProviders", p, offsets[p + 1] - offsets[p]);
+			}
+		}
+		topProviders = ret;
+	}
+
+	/**
+	 * Cached index of the top provider in the path, or -1 if the path has no
+	 * AS with a positive node degree.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IllegalStateException
+	 *             if top providers have not been indexed
+	 */
+	public int indexOfTopProvider(int path) {
+		if (topProviders == null) {
+			throw new IllegalStateException(concat(
+					"Top providers must be indexed before reading path [",
+					path, "]"));
+		}
+		return topProviders[path];
+	}
+
+}
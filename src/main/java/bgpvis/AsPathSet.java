@@ -0,0 +1,216 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.util.Arrays;
+
+/**
+ * Set of AS paths, keyed by a 128-bit fingerprint of the AS ids of each path.
+ * <p>
+ * Unique paths are appended to a flat path arena ({@link AsPathCorpus}) in
+ * order of first appearance. The hash table holds only primitives: the low
+ * half of the fingerprint and the index of the path in the arena, while the
+ * high half is held in an array aligned to the path index. The hops of a path
+ * are compared against the arena only when both halves of the fingerprint
+ * match, so the set stays exact.
+ */
+public final class AsPathSet {
+	private static final int FREE = -1;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private final AsPathCorpus paths;
+	private long[] fingerprints;
+	private int[] slots;
+	private int mask;
+	private long[] fingerprintHighs;
+
+	public AsPathSet() {
+		this(16, 64);
+	}
+
+	/**
+	 * @param expectedPaths
+	 *            expected number of unique AS paths, used for table sizing
+	 * @param expectedHops
+	 *            expected number of ASes over all unique paths, used for array
+	 *            sizing
+	 */
+	public AsPathSet(int expectedPaths, int expectedHops) {
+		paths = new AsPathCorpus(expectedPaths, expectedHops);
+		int capacity = tableSize(expectedPaths);
+		fingerprints = new long[capacity];
+		slots = new int[capacity];
+		Arrays.fill(slots, FREE);
+		mask = capacity - 1;
+		fingerprintHighs = new long[Math.max(expectedPaths, 1)];
+	}
+
+	private static int tableSize(int expectedSize) {
+		long required = (long) Math.ceil(Math.max(expectedSize, 2)
+				/ LOAD_FACTOR);
+		if (required > 1 << 30) {
+			throw new IllegalArgumentException(concat(
+					"Expected size is too large [", expectedSize, "]"));
+		}
+		return Integer.highestOneBit((int) required - 1) << 1;
+	}
+
+	private static long fmix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static long low(int[] asPath, int length) {
+		long h = length;
+		for (int i = 0; i < length; i++) {
+			h = Long.rotateLeft(h ^ asPath[i], 31) * 0x9e3779b97f4a7c15L;
+		}
+		return fmix(h);
+	}
+
+	private static long high(int[] asPath, int length) {
+		long h = ~length;
+		for (int i = 0; i < length; i++) {
+			h = Long.rotateLeft(h ^ asPath[i], 27) * 0xc2b2ae3d27d4eb4fL;
+		}
+		return fmix(h);
+	}
+
+	/**
+	 * Returns the slot of the path, or -(slot + 1) of the free slot where the
+	 * path would be inserted.
+	 */
+	private int slot(int[] asPath, int length, long low, long high) {
+		int i = (int) low & mask;
+		int p;
+		while ((p = slots[i]) != FREE) {
+			if (fingerprints[i] == low && fingerprintHighs[p] == high
+					&& equals(p, asPath, length)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	private boolean equals(int path, int[] asPath, int length) {
+		if (paths.length(path) != length) {
+			return false;
+		}
+		int start = paths.start(path);
+		for (int i = 0; i < length; i++) {
+			if (paths.hop(start + i) != asPath[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add the first ASes of the array as an AS path, if the path is not in the
+	 * set.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return true if the path was not in the set
+	 */
+	public boolean add(int[] asPath, int length) {
+		long low = low(asPath, length);
+		long high = high(asPath, length);
+		int i = slot(asPath, length, low, high);
+		if (i >= 0) {
+			return false;
+		}
+		i = -i - 1;
+		int p = paths.add(asPath, length);
+		if (p == fingerprintHighs.length) {
+			fingerprintHighs = Arrays.copyOf(fingerprintHighs, p + (p >> 1)
+					+ 1);
+		}
+		fingerprintHighs[p] = high;
+		fingerprints[i] = low;
+		slots[i] = p;
+		if (paths.size() > (mask + 1) * LOAD_FACTOR) {
+			rehash(slots.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the first ASes of the array are a path in the set.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return
+	 */
+	public boolean contains(int[] asPath, int length) {
+		return slot(asPath, length, low(asPath, length), high(asPath, length)) >= 0;
+	}
+
+	/**
+	 * Returns the index of the path in {@link #paths()}, or -1 if the first
+	 * ASes of the array are not a path in the set.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return
+	 */
+	public int indexOf(int[] asPath, int length) {
+		int i = slot(asPath, length, low(asPath, length), high(asPath, length));
+		if (i < 0) {
+			return -1;
+		}
+		return slots[i];
+	}
+
+	private void rehash(int capacity) {
+		long[] oldFingerprints = fingerprints;
+		int[] oldSlots = slots;
+		fingerprints = new long[capacity];
+		slots = new int[capacity];
+		Arrays.fill(slots, FREE);
+		mask = capacity - 1;
+		int j;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] == FREE) {
+				continue;
+			}
+			j = (int) oldFingerprints[i] & mask;
+			while (slots[j] != FREE) {
+				j = (j + 1) & mask;
+			}
+			fingerprints[j] = oldFingerprints[i];
+			slots[j] = oldSlots[i];
+		}
+	}
+
+	/**
+	 * Number of unique AS paths.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return paths.size();
+	}
+
+	/**
+	 * Unique AS paths in order of first appearance. The index of a path is
+	 * the order in which it was added.
+	 *
+	 * @return
+	 */
+	public AsPathCorpus paths() {
+		return paths;
+	}
+
+}
@@ -0,0 +1,171 @@
+package bgpvis;
+
+import static bgpvis.util.StringUtil.concat;
+
+/**
+ * Relationship graph of ASes. Holds one relationship code (see
+ * {@link AsGraph#P2C} and related codes) per directed edge of the adjacency,
+ * aligned to the edge index.
+ * <p>
+ * A graph of 60k ASes and 200k AS pairs takes a few MB: two ints per directed
+ * edge for the adjacency, and one byte per directed edge for the code.
+ */
+public final class AsRelationships {
+	private final AsAdjacency adjacency;
+	private final byte[] codes;
+
+	/**
+	 * Create a relationship graph where no edge has a relationship yet.
+	 *
+	 * @param adjacency
+	 */
+	public AsRelationships(AsAdjacency adjacency) {
+		this(adjacency, new byte[adjacency.edges()]);
+	}
+
+	/**
+	 * @param adjacency
+	 * @param codes
+	 *            relationship code of each edge, aligned to the edge index
+	 */
+	public AsRelationships(AsAdjacency adjacency, byte[] codes) {
+		if (codes.length != adjacency.edges()) {
+			throw new IllegalArgumentException(concat("Expected [",
+					adjacency.edges(), "] relationship codes but found [",
+					codes.length, "]"));
+		}
+		this.adjacency = adjacency;
+		this.codes = codes;
+	}
+
+	/**
+	 * Build the relationship graph from AS pairs, where the AS pair
+	 * {@code edges.start(i)} is the relationship of the first AS to the
+	 * second AS.
+	 *
+	 * @param edges
+	 *            AS pairs held as AS paths of two ASes
+	 * @param codes
+	 *            relationship code of each AS pair
+	 * @param nAs
+	 *            number of ASes in the dictionary
+	 * @return
+	 */
+	public static AsRelationships of(AsPathCorpus edges, byte[] codes, int nAs) {
+		AsRelationships ret = new AsRelationships(AsAdjacency.of(edges, nAs));
+		int start;
+		for (int i = 0; i < edges.size(); i++) {
+			start = edges.start(i);
+			ret.set(edges.hop(start), edges.hop(start + 1), codes[i]);
+		}
+		return ret;
+	}
+
+	public AsAdjacency adjacency() {
+		return adjacency;
+	}
+
+	/**
+	 * Relationship code of the edge.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public byte get(int edge) {
+		return codes[edge];
+	}
+
+	/**
+	 * Relationship code of the AS to its neighbour, or
+	 * {@link AsGraph#NO_RELATIONSHIP} if the AS pair is not adjacent.
+	 *
+	 * @param as
+	 * @param neighbour
+	 * @return
+	 */
+	public byte get(int as, int neighbour) {
+		int edge = adjacency.indexOf(as, neighbour);
+		if (edge < 0) {
+			return AsGraph.NO_RELATIONSHIP;
+		}
+		return codes[edge];
+	}
+
+	public void set(int edge, byte code) {
+		codes[edge] = code;
+	}
+
+	/**
+	 * Set the relationship code of the AS to its neighbour.
+	 *
+	 * @param as
+	 * @param neighbour
+	 * @param code
+	 * @throws IllegalArgumentException
+	 *             if the AS pair is not adjacent
+	 */
+	public void set(int as, int neighbour, byte code) {
+		codes[adjacency.edgeIndex(as, neighbour)] = code;
+	}
+
+	/**
+	 * Iterate over the edges of the AS.
+	 *
+	 * @param as
+	 * @return
+	 */
+	public Cursor edges(int as) {
+		return new Cursor(adjacency.start(as), adjacency.end(as));
+	}
+
+	/**
+	 * Iterates over the edges of an AS without boxing. Call {@link #next()}
+	 * before reading the first edge.
+	 */
+	public final class Cursor {
+		private int edge;
+		private final int end;
+
+		private Cursor(int start, int end) {
+			this.edge = start - 1;
+			this.end = end;
+		}
+
+		/**
+		 * Move to the next edge.
+		 *
+		 * @return false if there are no more edges
+		 */
+		public boolean next() {
+			return ++edge < end;
+		}
+
+		/**
+		 * Edge index of the current edge.
+		 *
+		 * @return
+		 */
+		public int edge() {
+			return edge;
+		}
+
+		/**
+		 * Neighbour at the head of the current edge.
+		 *
+		 * @return
+		 */
+		public int neighbour() {
+			return adjacency.neighbour(edge);
+		}
+
+		/**
+		 * Relationship code of the current edge.
+		 *
+		 * @return
+		 */
+		public byte relationship() {
+			return codes[edge];
+		}
+	}
+
+}
@@ -0,0 +1,505 @@
+package bgpvis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Relationship graph of Task 3 that is kept up to date with an
+ * {@link IncrementalAsGraph}, instead of annotating every AS pair again after
+ * each batch of updates.
+ * <p>
+ * Each live path adds its transit counts, its non-peering marks and the
+ * directions in which it crosses each AS pair to counters per directed edge,
+ * so that a path that changes is subtracted and added again without visiting
+ * other paths. Relationships are then assigned only to the dirty AS pairs:
+ * pairs crossed by a path that changed, and pairs of an AS whose node degree
+ * changed. Paths are dirty if they were announced or withdrawn, or if they
+ * contain an AS whose node degree changed (so their top provider may move),
+ * or if they cross an AS pair that became or stopped being a sibling pair
+ * (so their non-peering mark next to the top provider may move).
+ * <p>
+ * Relationships are the same as running Task 3 on the live paths.
+ */
+public final class IncrementalAsAnnotator {
+	private final IncrementalAsGraph graph;
+	private final int transitCountThreshold;
+	private final double degreeSizeRatio;
+
+	/**
+	 * Paths of each AS, AS pairs of each AS and paths of each AS pair, so
+	 * that dirty paths and AS pairs are found without a scan
+	 */
+	private final IntLists pathsByAs = new IntLists();
+	private final IntLists edgesByAs = new IntLists();
+	private final IntLists pathsByEdge = new IntLists();
+	private int indexedPaths;
+	private int indexedEdges;
+
+	/**
+	 * Paths whose counts are added, with the top provider and the
+	 * non-peering mark next to it that they were added with
+	 */
+	private final BitSet counted = new BitSet();
+	private int[] topProviders = new int[0];
+	private int[] topNonPeers = new int[0];
+
+	/**
+	 * Node degree of each AS when relationships were last assigned
+	 */
+	private int[] nodeDegreeByAs = new int[0];
+
+	/**
+	 * Counters per directed edge. The directed edge from the AS with the
+	 * smaller id of AS pair {@code e} is {@code 2 * e}, and the reverse is
+	 * {@code 2 * e + 1}.
+	 */
+	private int[] transitCustomerToProvider = new int[0];
+	private int[] crossings = new int[0];
+	private int[] nonPeers = new int[0];
+
+	/**
+	 * Relationship from transit counts of each AS pair (before peering
+	 * relationships), of the AS with the smaller id to the other AS
+	 */
+	private byte[] transitRelationships = new byte[0];
+	private final BitSet siblings = new BitSet();
+
+	/**
+	 * Relationship of each directed edge when last assigned
+	 */
+	private byte[] relationships = new byte[0];
+
+	/**
+	 * @param graph
+	 * @param transitCountThreshold
+	 * @param degreeSizeRatio
+	 */
+	public IncrementalAsAnnotator(IncrementalAsGraph graph,
+			int transitCountThreshold, double degreeSizeRatio) {
+		this.graph = graph;
+		this.transitCountThreshold = transitCountThreshold;
+		this.degreeSizeRatio = degreeSizeRatio;
+	}
+
+	/**
+	 * Assign relationships to the AS pairs affected by the updates of the
+	 * graph since the last call. The first call annotates every AS pair.
+	 *
+	 * @return relationships that changed, in order of AS pair
+	 */
+	public List<Change> annotate() {
+		index();
+		AsPathCorpus paths = graph.paths();
+
+		// Paths that were announced or withdrawn
+
+		BitSet dirtyPaths = graph.livePathSet();
+		dirtyPaths.xor(counted);
+
+		// ASes whose node degree changed are only found on paths that were
+		// announced or withdrawn
+
+		BitSet dirtyAses = new BitSet();
+		int end;
+		int as;
+		for (int p = dirtyPaths.nextSetBit(0); p >= 0; p = dirtyPaths.nextSetBit(p + 1)) {
+			end = paths.end(p);
+			for (int i = paths.start(p); i < end; i++) {
+				as = paths.hop(i);
+				if (nodeDegreeByAs[as] != graph.degree(as)) {
+					dirtyAses.set(as);
+				}
+			}
+		}
+		BitSet dirtyEdges = new BitSet();
+		BitSet movedPaths = new BitSet();
+		int p;
+		for (as = dirtyAses.nextSetBit(0); as >= 0; as = dirtyAses.nextSetBit(as + 1)) {
+			nodeDegreeByAs[as] = graph.degree(as);
+			for (int i = 0; i < pathsByAs.size(as); i++) {
+				p = pathsByAs.get(as, i);
+				if (counted.get(p) && !dirtyPaths.get(p)) {
+					movedPaths.set(p);
+				}
+			}
+			for (int i = 0; i < edgesByAs.size(as); i++) {
+				dirtyEdges.set(edgesByAs.get(as, i));
+			}
+		}
+
+		// Subtract the counts of withdrawn paths, and add the counts of
+		// announced paths
+
+		BitSet markTopNonPeer = new BitSet();
+		for (p = dirtyPaths.nextSetBit(0); p >= 0; p = dirtyPaths.nextSetBit(p + 1)) {
+			if (counted.get(p)) {
+				removeTopNonPeer(p, dirtyEdges);
+				count(p, -1, dirtyEdges);
+				counted.clear(p);
+			} else {
+				topProviders[p] = topProvider(p);
+				count(p, 1, dirtyEdges);
+				counted.set(p);
+				markTopNonPeer.set(p);
+			}
+		}
+
+		// Paths of an AS whose node degree changed are counted again only
+		// if their top provider moved. The non-peering mark next to the top
+		// provider compares the node degrees of its neighbours, so it is
+		// marked again either way.
+
+		int topProvider;
+		for (p = movedPaths.nextSetBit(0); p >= 0; p = movedPaths.nextSetBit(p + 1)) {
+			topProvider = topProvider(p);
+			if (topProvider != topProviders[p]) {
+				removeTopNonPeer(p, dirtyEdges);
+				count(p, -1, dirtyEdges);
+				topProviders[p] = topProvider;
+				count(p, 1, dirtyEdges);
+			}
+			markTopNonPeer.set(p);
+		}
+
+		// Phase 3 of Task 3 Algorithm 1 on dirty AS pairs. The non-peering
+		// mark next to the top provider of a path depends on whether the AS
+		// pair after the top provider is a sibling pair.
+
+		int edge;
+		byte code;
+		for (edge = dirtyEdges.nextSetBit(0); edge >= 0; edge = dirtyEdges.nextSetBit(edge + 1)) {
+			code = AsGraph.NO_RELATIONSHIP;
+			if (graph.adjacent(edge)) {
+				code = AsGraph.transitRelationship(
+						transitCustomerToProvider[2 * edge],
+						transitCustomerToProvider[2 * edge + 1],
+						transitCountThreshold);
+			}
+			transitRelationships[edge] = code;
+			if ((code == AsGraph.S2S) != siblings.get(edge)) {
+				siblings.flip(edge);
+				for (int i = 0; i < pathsByEdge.size(edge); i++) {
+					p = pathsByEdge.get(edge, i);
+					if (counted.get(p)) {
+						markTopNonPeer.set(p);
+					}
+				}
+			}
+		}
+
+		// Phase 2 of Task 3 Algorithm 2 next to the top provider
+
+		for (p = markTopNonPeer.nextSetBit(0); p >= 0; p = markTopNonPeer.nextSetBit(p + 1)) {
+			removeTopNonPeer(p, dirtyEdges);
+			topNonPeers[p] = topNonPeer(p);
+			if (topNonPeers[p] >= 0) {
+				nonPeers[topNonPeers[p]]++;
+				dirtyEdges.set(topNonPeers[p] >> 1);
+			}
+		}
+
+		// Phase 3 of Task 3 Algorithm 2 on dirty AS pairs, and report
+		// relationships that changed
+
+		List<Change> ret = new ArrayList<Change>();
+		int e;
+		for (edge = dirtyEdges.nextSetBit(0); edge >= 0; edge = dirtyEdges.nextSetBit(edge + 1)) {
+			for (int direction = 0; direction < 2; direction++) {
+				e = 2 * edge + direction;
+				code = relationship(edge, direction);
+				if (code != relationships[e]) {
+					ret.add(direction == 0 ? new Change(graph.as1(edge),
+							graph.as2(edge), relationships[e], code)
+							: new Change(graph.as2(edge), graph.as1(edge),
+									relationships[e], code));
+					relationships[e] = code;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Relationship of the AS to its neighbour, or
+	 * {@link AsGraph#NO_RELATIONSHIP} if the AS pair is not adjacent.
+	 *
+	 * @param as
+	 * @param neighbour
+	 * @return
+	 */
+	public byte get(int as, int neighbour) {
+		int e = directedEdge(as, neighbour);
+		if (e < 0 || e >= relationships.length) {
+			return AsGraph.NO_RELATIONSHIP;
+		}
+		return relationships[e];
+	}
+
+	private byte relationship(int edge, int direction) {
+		if (!graph.adjacent(edge)) {
+			return AsGraph.NO_RELATIONSHIP;
+		}
+		int e = 2 * edge + direction;
+		int curr = direction == 0 ? graph.as1(edge) : graph.as2(edge);
+		int next = direction == 0 ? graph.as2(edge) : graph.as1(edge);
+
+		// Integer division, same as Task 3
+
+		double ratio = nodeDegreeByAs[curr] / nodeDegreeByAs[next];
+
+		// Both curr and next ASes are non-peering in both directions,
+		// and degree size ratio does not exceed threshold
+
+		if (crossings[e] > 0 && nonPeers[e] == 0 && nonPeers[e ^ 1] == 0
+				&& ratio < degreeSizeRatio && ratio > (1 / degreeSizeRatio)) {
+			return AsGraph.P2P;
+		}
+		if (direction == 0) {
+			return transitRelationships[edge];
+		}
+		return AsGraph.reverse(transitRelationships[edge]);
+	}
+
+	/**
+	 * Directed edge from the AS to the neighbour, or -1 if the AS pair has
+	 * never been adjacent.
+	 */
+	private int directedEdge(int as, int neighbour) {
+		int edge = graph.edgeIndex(as, neighbour);
+		if (edge < 0) {
+			return -1;
+		}
+		return as < neighbour ? 2 * edge : 2 * edge + 1;
+	}
+
+	/**
+	 * Index of the AS with the largest node degree in the path, or -1 if no
+	 * AS has a positive node degree. Same as
+	 * {@link AsPathCorpus#indexTopProviders(int[])}.
+	 */
+	private int topProvider(int path) {
+		AsPathCorpus paths = graph.paths();
+		int start = paths.start(path);
+		int end = paths.end(path);
+		int ret = -1;
+		int max = 0;
+		int degree;
+		for (int i = start; i < end; i++) {
+			degree = nodeDegreeByAs[paths.hop(i)];
+			if (degree > max) {
+				max = degree;
+				ret = i - start;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Add the transit counts, crossings and non-peering marks of the path
+	 * (except the mark next to the top provider) with the sign. Based on
+	 * Phase 2 of Task 3 Algorithm 1 and Phase 2 of Task 3 Algorithm 2.
+	 */
+	private void count(int path, int sign, BitSet dirtyEdges) {
+		AsPathCorpus paths = graph.paths();
+		int start = paths.start(path);
+		int end = paths.end(path);
+		int j = start + topProviders[path];
+		int curr;
+		int next;
+		int e;
+		for (int i = start; i < end - 1; i++) {
+			curr = paths.hop(i);
+			next = paths.hop(i + 1);
+			if (curr == next) {
+				continue;
+			}
+			e = directedEdge(curr, next);
+			crossings[e] += sign;
+			if (i < j) {
+				transitCustomerToProvider[e] += sign;
+			} else {
+				transitCustomerToProvider[e ^ 1] += sign;
+			}
+			if (i < j - 1 || i > j) {
+				nonPeers[e] += sign;
+			}
+			dirtyEdges.set(e >> 1);
+		}
+	}
+
+	/**
+	 * Directed edge of the non-peering mark next to the top provider of the
+	 * path, or -1 if there is none. Left sibling is never set, same as Task 3.
+	 */
+	private int topNonPeer(int path) {
+		AsPathCorpus paths = graph.paths();
+		int start = paths.start(path);
+		int end = paths.end(path);
+		int j = start + topProviders[path];
+		if (j - 1 < start || j + 1 >= end) {
+			return -1;
+		}
+		int topProvider = paths.hop(j);
+		int prev = paths.hop(j - 1);
+		int next = paths.hop(j + 1);
+		if (siblings.get(graph.edgeIndex(topProvider, next))) {
+			return -1;
+		}
+		if (nodeDegreeByAs[prev] > nodeDegreeByAs[next]) {
+			return directedEdge(topProvider, next);
+		}
+		return directedEdge(prev, topProvider);
+	}
+
+	private void removeTopNonPeer(int path, BitSet dirtyEdges) {
+		if (topNonPeers[path] >= 0) {
+			nonPeers[topNonPeers[path]]--;
+			dirtyEdges.set(topNonPeers[path] >> 1);
+			topNonPeers[path] = -1;
+		}
+	}
+
+	/**
+	 * Index paths and AS pairs that are new to the graph, and grow the arrays
+	 * aligned to them.
+	 */
+	private void index() {
+		AsPathCorpus paths = graph.paths();
+		int nPaths = paths.size();
+		if (nPaths > topProviders.length) {
+			int capacity = Math.max(nPaths, topProviders.length
+					+ (topProviders.length >> 1));
+			topProviders = Arrays.copyOf(topProviders, capacity);
+			int from = topNonPeers.length;
+			topNonPeers = Arrays.copyOf(topNonPeers, capacity);
+			Arrays.fill(topNonPeers, from, capacity, -1);
+		}
+		int end;
+		int curr;
+		int next;
+		for (int p = indexedPaths; p < nPaths; p++) {
+			end = paths.end(p);
+			for (int i = paths.start(p); i < end; i++) {
+				curr = paths.hop(i);
+				pathsByAs.add(curr, p);
+				if (i == end - 1) {
+					continue;
+				}
+				next = paths.hop(i + 1);
+				if (curr != next) {
+					pathsByEdge.add(graph.edgeIndex(curr, next), p);
+				}
+			}
+		}
+		indexedPaths = nPaths;
+		int nEdges = graph.edgeCount();
+		if (nEdges > transitRelationships.length) {
+			int capacity = Math.max(nEdges, transitRelationships.length
+					+ (transitRelationships.length >> 1));
+			transitRelationships = Arrays.copyOf(transitRelationships,
+					capacity);
+			transitCustomerToProvider = Arrays.copyOf(
+					transitCustomerToProvider, 2 * capacity);
+			crossings = Arrays.copyOf(crossings, 2 * capacity);
+			nonPeers = Arrays.copyOf(nonPeers, 2 * capacity);
+			relationships = Arrays.copyOf(relationships, 2 * capacity);
+		}
+		for (int edge = indexedEdges; edge < nEdges; edge++) {
+			edgesByAs.add(graph.as1(edge), edge);
+			edgesByAs.add(graph.as2(edge), edge);
+		}
+		indexedEdges = nEdges;
+		int nAs = graph.dictionary()
+			.size();
+		if (nAs > nodeDegreeByAs.length) {
+			nodeDegreeByAs = Arrays.copyOf(nodeDegreeByAs, Math.max(nAs,
+					nodeDegreeByAs.length + (nodeDegreeByAs.length >> 1)));
+		}
+	}
+
+	/**
+	 * Relationship of an AS to its neighbour that changed.
+	 */
+	public static final class Change {
+		private final int as1;
+		private final int as2;
+		private final byte oldRelationship;
+		private final byte newRelationship;
+
+		private Change(int as1, int as2, byte oldRelationship,
+				byte newRelationship) {
+			this.as1 = as1;
+			this.as2 = as2;
+			this.oldRelationship = oldRelationship;
+			this.newRelationship = newRelationship;
+		}
+
+		public int as1() {
+			return as1;
+		}
+
+		public int as2() {
+			return as2;
+		}
+
+		/**
+		 * Relationship code before the change, or
+		 * {@link AsGraph#NO_RELATIONSHIP} if the AS pair was not adjacent.
+		 *
+		 * @return
+		 */
+		public byte oldRelationship() {
+			return oldRelationship;
+		}
+
+		/**
+		 * Relationship code after the change, or
+		 * {@link AsGraph#NO_RELATIONSHIP} if the AS pair is not adjacent.
+		 *
+		 * @return
+		 */
+		public byte newRelationship() {
+			return newRelationship;
+		}
+	}
+
+	/**
+	 * Growable list of ints for each key, such as the paths of each AS. Lists
+	 * only grow; a value added twice in a row is kept once.
+	 */
+	private static final class IntLists {
+		private int[][] values = new int[16][];
+		private int[] sizes = new int[16];
+
+		private void add(int key, int value) {
+			if (key >= sizes.length) {
+				int capacity = Math.max(key + 1, sizes.length
+						+ (sizes.length >> 1));
+				values = Arrays.copyOf(values, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+			}
+			int size = sizes[key];
+			if (values[key] == null) {
+				values[key] = new int[4];
+			} else if (size > 0 && values[key][size - 1] == value) {
+				return;
+			} else if (size == values[key].length) {
+				values[key] = Arrays.copyOf(values[key], size + (size >> 1)
+						+ 1);
+			}
+			values[key][size] = value;
+			sizes[key]++;
+		}
+
+		private int size(int key) {
+			return key < sizes.length ? sizes[key] : 0;
+		}
+
+		private int get(int key, int i) {
+			return values[key][i];
+		}
+	}
+
+}
@@ -0,0 +1,354 @@
+package bgpvis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import bgpvis.util.LongIntHashMap;
+
+/**
+ * AS graph that is kept up to date from announced and withdrawn AS paths,
+ * instead of being rebuilt from a full RIB dump.
+ * <p>
+ * Each unique AS path has a reference count of the times it is announced and
+ * not yet withdrawn, and is live while the count is positive. Each AS pair
+ * (undirected edge) has a reference count of the live paths that cross it, so
+ * an AS pair is adjacent while its count is positive. Node degrees are updated
+ * in place when an AS pair becomes adjacent or stops being adjacent.
+ * <p>
+ * ASes whose node degree changed are tracked since the last
+ * {@link #commit()}, so that each batch of updates can report them.
+ */
+public final class IncrementalAsGraph {
+	private final AsDictionary dictionary;
+	private final AsPathSet paths = new AsPathSet();
+	private int[] pathRefs = new int[16];
+	private final BitSet livePaths = new BitSet();
+	private int nLivePaths;
+
+	/**
+	 * Edge index of each AS pair, keyed by {@link #key(int, int)}
+	 */
+	private final LongIntHashMap edgeIndex = new LongIntHashMap();
+	private int[] edgeAs1 = new int[16];
+	private int[] edgeAs2 = new int[16];
+	private int[] edgeRefs = new int[16];
+	private int nEdges;
+	private int nLiveEdges;
+
+	private int[] nodeDegreeByAs = new int[16];
+	private int[] committedNodeDegreeByAs = new int[16];
+	private final BitSet touched = new BitSet();
+
+	/**
+	 * @param dictionary
+	 *            AS dictionary of the paths, that new ASes are added to
+	 */
+	public IncrementalAsGraph(AsDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	public AsDictionary dictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Key of an AS pair, the same in both directions.
+	 */
+	private static long key(int as1, int as2) {
+		if (as1 > as2) {
+			return ((long) as2 << 32) | as1;
+		}
+		return ((long) as1 << 32) | as2;
+	}
+
+	private void ensureAs(int as) {
+		if (as >= nodeDegreeByAs.length) {
+			int capacity = Math.max(as + 1, nodeDegreeByAs.length
+					+ (nodeDegreeByAs.length >> 1));
+			nodeDegreeByAs = Arrays.copyOf(nodeDegreeByAs, capacity);
+			committedNodeDegreeByAs = Arrays.copyOf(committedNodeDegreeByAs,
+					capacity);
+		}
+	}
+
+	/**
+	 * Announce the first ASes of the array as an AS path.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return true if the path was not live before
+	 */
+	public boolean announce(int[] asPath, int length) {
+		int p = paths.indexOf(asPath, length);
+		if (p < 0) {
+			paths.add(asPath, length);
+			p = paths.size() - 1;
+			if (p == pathRefs.length) {
+				pathRefs = Arrays.copyOf(pathRefs, p + (p >> 1) + 1);
+			}
+		}
+		if (pathRefs[p]++ > 0) {
+			return false;
+		}
+		nLivePaths++;
+		livePaths.set(p);
+		for (int i = 0; i < length - 1; i++) {
+			addEdgeRef(asPath[i], asPath[i + 1], 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Withdraw the first ASes of the array as an AS path.
+	 *
+	 * @param asPath
+	 *            AS ids
+	 * @param length
+	 *            number of ASes in the path
+	 * @return false if the path was not live
+	 */
+	public boolean withdraw(int[] asPath, int length) {
+		int p = paths.indexOf(asPath, length);
+		if (p < 0 || pathRefs[p] == 0) {
+			return false;
+		}
+		if (--pathRefs[p] > 0) {
+			return true;
+		}
+		nLivePaths--;
+		livePaths.clear(p);
+		for (int i = 0; i < length - 1; i++) {
+			addEdgeRef(asPath[i], asPath[i + 1], -1);
+		}
+		return true;
+	}
+
+	private void addEdgeRef(int as1, int as2, int delta) {
+		if (as1 == as2) {
+			return;
+		}
+		long key = key(as1, as2);
+		int e = edgeIndex.get(key, -1);
+		if (e < 0) {
+			e = nEdges++;
+			if (e == edgeRefs.length) {
+				int capacity = e + (e >> 1) + 1;
+				edgeAs1 = Arrays.copyOf(edgeAs1, capacity);
+				edgeAs2 = Arrays.copyOf(edgeAs2, capacity);
+				edgeRefs = Arrays.copyOf(edgeRefs, capacity);
+			}
+			edgeAs1[e] = Math.min(as1, as2);
+			edgeAs2[e] = Math.max(as1, as2);
+			edgeIndex.put(key, e);
+		}
+		int before = edgeRefs[e];
+		edgeRefs[e] += delta;
+		if (before == 0 && edgeRefs[e] > 0) {
+			nLiveEdges++;
+			addDegree(as1, 1);
+			addDegree(as2, 1);
+		} else if (before > 0 && edgeRefs[e] == 0) {
+			nLiveEdges--;
+			addDegree(as1, -1);
+			addDegree(as2, -1);
+		}
+	}
+
+	private void addDegree(int as, int delta) {
+		ensureAs(as);
+		nodeDegreeByAs[as] += delta;
+		touched.set(as);
+	}
+
+	/**
+	 * Node degree of the AS (number of adjacent neighbours).
+	 *
+	 * @param as
+	 * @return
+	 */
+	public int degree(int as) {
+		return as < nodeDegreeByAs.length ? nodeDegreeByAs[as] : 0;
+	}
+
+	/**
+	 * Node degree at the last {@link #commit()}.
+	 *
+	 * @param as
+	 * @return
+	 */
+	public int committedDegree(int as) {
+		return as < committedNodeDegreeByAs.length ? committedNodeDegreeByAs[as]
+				: 0;
+	}
+
+	/**
+	 * Map AS to its node degree.
+	 *
+	 * @return node degree of each AS in the dictionary
+	 */
+	public int[] nodeDegreeByAs() {
+		ensureAs(dictionary.size() - 1);
+		return Arrays.copyOf(nodeDegreeByAs, dictionary.size());
+	}
+
+	/**
+	 * Returns the ASes whose node degree changed since the last
+	 * {@link #commit()}.
+	 *
+	 * @return AS ids in ascending order
+	 */
+	public int[] changedAses() {
+		int[] ret = new int[touched.cardinality()];
+		int n = 0;
+		for (int as = touched.nextSetBit(0); as >= 0; as = touched.nextSetBit(as + 1)) {
+			if (nodeDegreeByAs[as] != committedNodeDegreeByAs[as]) {
+				ret[n++] = as;
+			}
+		}
+		return Arrays.copyOf(ret, n);
+	}
+
+	/**
+	 * Take the current node degrees as the baseline of
+	 * {@link #changedAses()}.
+	 */
+	public void commit() {
+		for (int as = touched.nextSetBit(0); as >= 0; as = touched.nextSetBit(as + 1)) {
+			committedNodeDegreeByAs[as] = nodeDegreeByAs[as];
+		}
+		touched.clear();
+	}
+
+	/**
+	 * Every unique AS path that has been announced, live or not. The index of
+	 * a path is the order in which it was first announced.
+	 *
+	 * @return
+	 */
+	public AsPathCorpus paths() {
+		return paths.paths();
+	}
+
+	/**
+	 * Returns true if the path is announced and not withdrawn.
+	 *
+	 * @param path
+	 *            index of the path in {@link #paths()}
+	 * @return
+	 */
+	public boolean live(int path) {
+		return livePaths.get(path);
+	}
+
+	/**
+	 * Indexes of the live paths in {@link #paths()}.
+	 *
+	 * @return
+	 */
+	public int[] livePaths() {
+		int[] ret = new int[nLivePaths];
+		int n = 0;
+		for (int p = livePaths.nextSetBit(0); p >= 0; p = livePaths.nextSetBit(p + 1)) {
+			ret[n++] = p;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a copy of the set of live paths, by index in {@link #paths()}.
+	 *
+	 * @return
+	 */
+	public BitSet livePathSet() {
+		return (BitSet) livePaths.clone();
+	}
+
+	/**
+	 * Number of live AS paths.
+	 *
+	 * @return
+	 */
+	public int livePathCount() {
+		return nLivePaths;
+	}
+
+	/**
+	 * Number of adjacent AS pairs.
+	 *
+	 * @return
+	 */
+	public int liveEdgeCount() {
+		return nLiveEdges;
+	}
+
+	/**
+	 * Number of AS pairs that have ever been adjacent. Edge indexes are
+	 * assigned in order of first appearance and never reused, so that state
+	 * aligned to the edge index stays valid across updates.
+	 *
+	 * @return
+	 */
+	public int edgeCount() {
+		return nEdges;
+	}
+
+	/**
+	 * Edge index of the AS pair, the same in both directions, or -1 if the AS
+	 * pair has never been adjacent.
+	 *
+	 * @param as1
+	 * @param as2
+	 * @return
+	 */
+	public int edgeIndex(int as1, int as2) {
+		return edgeIndex.get(key(as1, as2), -1);
+	}
+
+	/**
+	 * AS of the edge with the smaller id.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public int as1(int edge) {
+		return edgeAs1[edge];
+	}
+
+	/**
+	 * AS of the edge with the larger id.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public int as2(int edge) {
+		return edgeAs2[edge];
+	}
+
+	/**
+	 * Returns true if the AS pair of the edge is crossed by a live path.
+	 *
+	 * @param edge
+	 * @return
+	 */
+	public boolean adjacent(int edge) {
+		return edgeRefs[edge] > 0;
+	}
+
+	/**
+	 * Build the adjacency of the AS pairs that are adjacent now.
+	 *
+	 * @return
+	 */
+	public AsAdjacency adjacency() {
+		AsPathCorpus edges = new AsPathCorpus(nLiveEdges, nLiveEdges * 2);
+		for (int e = 0; e < nEdges; e++) {
+			if (edgeRefs[e] > 0) {
+				edges.add(edgeAs1[e], edgeAs2[e]);
+			}
+		}
+		return AsAdjacency.of(edges, dictionary.size());
+	}
+
+}
@@ -1,29 +1,51 @@
 package bgpvis;
 
-import static bgpvis.AsPath.validate;
-import static bgpvis.util.StringUtil.trim;
+import static bgpvis.util.StringUtil.concat;
+import static bgpvis.util.StringUtil.split;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import bgpvis.etl.CorpusFile;
+import bgpvis.util.LineWriter;
+import bgpvis.util.Metrics;
 import bgpvis.util.MyFileWriter;
-import bgpvis.validation.ValidationResult;
-
-import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
+import bgpvis.util.StringUtil;
+import bgpvis.validation.Rejections;
 
 public final class NodeDegreeRanker {
 	private static final Logger log = LoggerFactory.getLogger(NodeDegreeRanker.class);
 	private static final String IN_FILE_PATH = System.getProperty("bgp.in.file");
 	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
-	private static final int TOP_K = Integer.parseInt(System.getProperty("bgp.in.top-k"));
+
+	/**
+	 * One or more k values, separated by commas. Output has the top k ASes
+	 * for the largest k.
+	 */
+	private static final String TOP_K = System.getProperty("bgp.in.top-k");
+
+	/**
+	 * Optional node degree percentiles to log, separated by commas.
+	 */
+	private static final String PERCENTILES = System.getProperty("bgp.in.percentiles");
+
+	/**
+	 * Optional file of the lines that are not AS paths
+	 */
+	private static final String OUT_QUARANTINE_FILE_PATH = System.getProperty("bgp.out.quarantine-file");
+
+	/**
+	 * Metrics of each phase, next to the output file by default
+	 */
+	private static final String OUT_METRICS_FILE_PATH = System.getProperty(
+			"bgp.out.metrics-file", Metrics.filePath(OUT_FILE_PATH));
 		
 	/**
 	 * ASPATH attribute name is not present in Task 2 input file. 
@@ -35,55 +57,251 @@ public final class NodeDegreeRanker {
 	 */
 	private static final int EXPECTED_NUMBER_OF_AS_PATHS = 649412 * 2;
 
+	/**
+	 * Use for array sizing
+	 */
+	private static final int EXPECTED_PATH_LENGTH = 4;
+
 	private NodeDegreeRanker() {
 		// Private constructor, not meant to be instantiated
 	}
 
 	public static void main(String[] args) throws IOException {
 		long startTime = System.currentTimeMillis();
+
+		// Parse k values before the corpus is loaded
+
+		int[] ks = ks(TOP_K);
 		
-		BufferedReader br = null;
 		File file = new File(IN_FILE_PATH);
-		String line = "";
-		ValidationResult validation;
-		List<String> asPaths = new ArrayList<String>(EXPECTED_NUMBER_OF_AS_PATHS);
+		AsDictionary dictionary;
+		AsAdjacency adjacency;
+		Rejections rejections = new Rejections(OUT_QUARANTINE_FILE_PATH);
+		Metrics metrics = new Metrics(NodeDegreeRanker.class.getSimpleName());
+		Metrics.Phase phase;
+		int nPaths;
+		
 		try {
-			br = new BufferedReader(new FileReader(file));
-			while ((line = br.readLine()) != null) {
-				line = trim(line);
-				
-				// Skip lines that are not AS paths 
+			// Start from the snapshot of the annotated graph if there is one
+		
+			if (AnnotatedAsGraph.isSnapshot(file)) {
+				phase = metrics.start("Read snapshot");
+				AnnotatedAsGraph graph = AnnotatedAsGraph.read(file);
+				dictionary = graph.dictionary();
+				adjacency = graph.adjacency();
+				phase.in(adjacency.edges())
+					.out(adjacency.edges())
+					.stop();
+			} else {
+				dictionary = new AsDictionary();
+				AsPathCorpus asPaths = new AsPathCorpus(EXPECTED_NUMBER_OF_AS_PATHS,
+						EXPECTED_NUMBER_OF_AS_PATHS * EXPECTED_PATH_LENGTH);
+
+				// Read a binary corpus file from Task 1, or else a text file.
+				// Skip lines that are not AS paths
 				// (such as the last two lines in Task 1 output file)
-				
-				validation = validate(line, ASPATH_ATTRIBUTE_PRESENT); 
-				if (validation.hasErrors()) {
-					log.warn("{}", validation);
-					continue;
-				}
-				asPaths.add(line);
-			}
-			
-			// Get neighbours of each AS
-			
-			Multimap<String, String> neighbours = AsGraph.neighboursByAs(asPaths);
-			
-			// Index AS by node degree (number of adjacent neighbours)
-			
-			TreeMultimap<Integer, String> asByNodeDegree = AsGraph.asByNodeDegree(neighbours);
+
+				phase = metrics.start("Load AS paths");
+				nPaths = CorpusFile.load(file, ASPATH_ATTRIBUTE_PRESENT,
+						asPaths, dictionary, rejections);
+				phase.in(nPaths + rejections.total())
+					.out(nPaths)
+					.stop();
 			
-			// Get top k ASes by largest node degree
+				// Get neighbours of each AS
 			
-			List<String> out = AsGraph.top(asByNodeDegree, TOP_K);
-			file = MyFileWriter.write(out, OUT_FILE_PATH);
-			log.info("Saved {}", file.getAbsolutePath());
+				phase = metrics.start("Neighbours");
+				adjacency = AsAdjacency.of(asPaths, dictionary.size());
+				phase.in(nPaths)
+					.out(adjacency.edges())
+					.stop();
+			}
 		} finally {
-			if (br != null) {
-				br.close();
+			rejections.close();
+		}
+
+		// Map of AS to its node degree (number of adjacent neighbours)
+		
+		int nAs = adjacency.size();
+		phase = metrics.start("Node degree");
+		int[] nodeDegreeByAs = AsGraph.nodeDegreeByAs(adjacency);
+		phase.in(nAs)
+			.out(nAs)
+			.stop();
+		
+		// Get top k ASes by largest node degree. Top k ASes of a smaller k
+		// are a prefix of the top k ASes of the largest k.
+		
+		phase = metrics.start("Top k");
+		int[] top = AsGraph.top(nodeDegreeByAs, dictionary, max(ks));
+		phase.in(nAs)
+			.out(top.length)
+			.stop();
+		logTopK(top, ks, nodeDegreeByAs);
+		if (PERCENTILES != null) {
+			phase = metrics.start("Percentiles");
+			int[] histogram = AsGraph.nodeDegreeHistogram(nodeDegreeByAs);
+			List<String> percentiles = split(PERCENTILES, StringUtil.COMMA);
+			for (String percentile : percentiles) {
+				log.info("Percentile {} of node degree: {}", percentile,
+						AsGraph.percentile(histogram,
+								Double.parseDouble(percentile)));
 			}
+			phase.in(nAs)
+				.out(percentiles.size())
+				.stop();
+		}
+		phase = metrics.start("Write top k");
+		List<File> files = write(top, ks, dictionary, OUT_FILE_PATH);
+		phase.in(top.length)
+			.out(files.size())
+			.stop();
+		for (File f : files) {
+			log.info("Saved {}", f.getAbsolutePath());
 		}
+		log.info("{}", rejections);
+		file = metrics.write(OUT_METRICS_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
 		long elapsedTime = System.currentTimeMillis() - startTime;
 		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
 	}
+
+	/**
+	 * Parse one or more k values, separated by commas.
+	 *
+	 * @param topK
+	 * @return k values in the given order
+	 * @throws IllegalArgumentException
+	 *             if a k value is not a positive number
+	 */
+	static int[] ks(String topK) {
+		if (topK == null) {
+			throw new IllegalArgumentException("Top k must not be null");
+		}
+		List<String> values = split(topK, StringUtil.COMMA);
+		int[] ret = new int[values.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = Integer.parseInt(values.get(i));
+			if (ret[i] <= 0) {
+				throw new IllegalArgumentException(concat(
+						"k must be a positive number [", values.get(i), "]"));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Largest k, which is the number of ASes to rank.
+	 *
+	 * @param ks
+	 * @return
+	 */
+	static int max(int[] ks) {
+		int ret = 0;
+		for (int k : ks) {
+			ret = Math.max(ret, k);
+		}
+		return ret;
+	}
+
+	/**
+	 * Log the node degree of the k-th AS for each k. Top k ASes of a smaller
+	 * k are a prefix of the top k ASes of the largest k.
+	 *
+	 * @param top
+	 *            top k ASes for the largest k
+	 * @param ks
+	 * @param nodeDegreeByAs
+	 */
+	static void logTopK(int[] top, int[] ks, int[] nodeDegreeByAs) {
+		int n;
+		for (int k : ks) {
+			n = Math.min(k, top.length);
+			if (n > 0) {
+				log.info("Top {} ASes have node degree of at least {}", n,
+						nodeDegreeByAs[top[n - 1]]);
+			}
+		}
+	}
+
+	/**
+	 * Write one file per k. The file of the largest k is the output file,
+	 * and the file of each smaller k is the output file with the k before
+	 * its extension, e.g. top.10.txt.
+	 *
+	 * @param top
+	 *            top k ASes for the largest k
+	 * @param ks
+	 * @param dictionary
+	 * @param filePath
+	 *            output file of the largest k
+	 * @return files that are written
+	 * @throws IOException
+	 */
+	static List<File> write(int[] top, int[] ks, AsDictionary dictionary,
+			String filePath) throws IOException {
+		int maxK = max(ks);
+		Set<Integer> written = new HashSet<Integer>();
+		List<File> ret = new ArrayList<File>(ks.length);
+		String path;
+		for (int k : ks) {
+			if (!written.add(k)) {
+				continue;
+			}
+			path = k == maxK ? filePath : filePath(filePath, k);
+			write(top, Math.min(k, top.length), dictionary, path);
+			ret.add(new File(path));
+		}
+		return ret;
+	}
+
+	/**
+	 * Output file of a smaller k: the k goes before the extension, and
+	 * before {@link LineWriter#GZIP_SUFFIX} of a gzipped file.
+	 *
+	 * @param filePath
+	 * @param k
+	 * @return
+	 */
+	static String filePath(String filePath, int k) {
+		String suffix = "";
+		String path = filePath;
+		if (path.endsWith(LineWriter.GZIP_SUFFIX)) {
+			suffix = LineWriter.GZIP_SUFFIX;
+			path = path.substring(0, path.length() - suffix.length());
+		}
+		int dot = path.lastIndexOf('.');
+		if (dot > path.lastIndexOf(File.separatorChar)) {
+			suffix = concat(path.substring(dot), suffix);
+			path = path.substring(0, dot);
+		}
+		return concat(path, ".", k, suffix);
+	}
+
+	/**
+	 * Write the first n of the top k ASes to the file, one AS number per
+	 * line.
+	 *
+	 * @param top
+	 *            AS ids
+	 * @param n
+	 * @param dictionary
+	 * @param filePath
+	 *            gzipped if it ends with {@link LineWriter#GZIP_SUFFIX}
+	 * @throws IOException
+	 */
+	static void write(int[] top, int n, AsDictionary dictionary,
+			String filePath) throws IOException {
+		LineWriter out = MyFileWriter.open(filePath);
+		try {
+			for (int i = 0; i < n; i++) {
+				out.nextLine()
+					.write(dictionary.asNumber(top[i]));
+			}
+		} finally {
+			out.close();
+		}
+	}
 	
 	
 
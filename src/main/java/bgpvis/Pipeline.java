@@ -0,0 +1,237 @@
+package bgpvis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bgpvis.etl.BgpPreprocessor;
+import bgpvis.util.LineWriter;
+import bgpvis.util.Metrics;
+import bgpvis.util.MyFileWriter;
+import bgpvis.validation.Rejections;
+
+/**
+ * Runs Tasks 1 to 4 in one process, passing the AS path corpus, adjacency and
+ * relationship graph between tasks in memory instead of through text files.
+ * <p>
+ * Tasks depend on each other as follows: Task 2 and Task 3 need the AS paths
+ * of Task 1, and Task 4 needs the relationships of Task 3. Task 2 runs on
+ * another thread while Tasks 3 and 4 run, because nothing depends on it. Text
+ * output of Tasks 1 to 3 is optional, and Task 2 is skipped if it has no
+ * output file.
+ */
+public final class Pipeline {
+	private static final Logger log = LoggerFactory.getLogger(Pipeline.class);
+	private static final String IN_FILE_PATH = System.getProperty("bgp.in.file");
+
+	/**
+	 * Task 4 output
+	 */
+	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
+
+	/**
+	 * Optional Task 1 output
+	 */
+	private static final String OUT_PATHS_FILE_PATH = System.getProperty("bgp.out.paths-file");
+
+	/**
+	 * Optional Task 2 output
+	 */
+	private static final String OUT_TOP_K_FILE_PATH = System.getProperty("bgp.out.top-k-file");
+
+	/**
+	 * Optional Task 3 output
+	 */
+	private static final String OUT_RELATIONSHIPS_FILE_PATH = System.getProperty("bgp.out.relationships-file");
+
+	/**
+	 * Optional snapshot of the annotated graph of Task 3
+	 */
+	private static final String OUT_SNAPSHOT_FILE_PATH = System.getProperty("bgp.out.snapshot-file");
+
+	/**
+	 * Optional file of the lines of Task 1 input that are not AS paths or
+	 * that contain an AS set
+	 */
+	private static final String OUT_QUARANTINE_FILE_PATH = System.getProperty("bgp.out.quarantine-file");
+
+	/**
+	 * Metrics of each phase, next to the Task 4 output file by default
+	 */
+	private static final String OUT_METRICS_FILE_PATH = System.getProperty(
+			"bgp.out.metrics-file", Metrics.filePath(OUT_FILE_PATH));
+
+	private static final double DEGREE_SIZE_RATIO = Double.parseDouble(System.getProperty("bgp.in.degree-size-ratio"));
+	private static final int TRANSIT_COUNT_THRESHOLD = Integer.parseInt(System.getProperty("bgp.in.transit-count-threshold"));
+
+	/**
+	 * Number of threads that read the RIB file and count transit
+	 * relationships.
+	 */
+	private static final int PARALLELISM = Integer.getInteger(
+			"bgp.in.parallelism", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Use for collection sizing
+	 */
+	private static final int EXPECTED_NUMBER_OF_ASES = 65536;
+
+	private Pipeline() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	public static void main(String[] args) throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		// Parse k values of Task 2 the same way as NodeDegreeRanker, before
+		// any work is done
+
+		final int[] ks = OUT_TOP_K_FILE_PATH == null ? null
+				: NodeDegreeRanker.ks(System.getProperty("bgp.in.top-k"));
+
+		// Task 1
+		// Read unique AS paths, mapping each AS to an int id once
+
+		final AsDictionary dictionary = new AsDictionary(
+				EXPECTED_NUMBER_OF_ASES);
+		AsPathSet pathSet;
+		LineWriter out = null;
+		Rejections rejections = new Rejections(OUT_QUARANTINE_FILE_PATH);
+		final Metrics metrics = new Metrics(Pipeline.class.getSimpleName());
+		try {
+			if (OUT_PATHS_FILE_PATH != null) {
+				out = MyFileWriter.open(OUT_PATHS_FILE_PATH);
+			}
+			pathSet = BgpPreprocessor.preprocess(new File(IN_FILE_PATH),
+					dictionary, out, rejections, metrics);
+			if (out != null) {
+				out.close();
+				out = null;
+				log.info("Saved {}",
+						new File(OUT_PATHS_FILE_PATH).getAbsolutePath());
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			rejections.close();
+		}
+		log.info("Task 1: {} AS paths, {} ASes", pathSet.size(),
+				dictionary.size());
+
+		// Keep the paths but not the dedup table
+
+		AsPathCorpus asPaths = pathSet.paths();
+		pathSet = null;
+		Metrics.Phase phase = metrics.start("Neighbours");
+		final AsAdjacency adjacency = AsAdjacency.of(asPaths,
+				dictionary.size());
+		phase.in(asPaths.size())
+			.out(adjacency.edges())
+			.stop();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+
+			// Task 2
+			// Get top k ASes by largest node degree
+
+			Future<int[]> top = null;
+			if (ks != null) {
+				top = pool.submit(new Callable<int[]>() {
+					@Override
+					public int[] call() {
+						Metrics.Phase phase = metrics.start("Top k");
+						int[] nodeDegreeByAs = AsGraph.nodeDegreeByAs(adjacency);
+						int[] ret = AsGraph.top(nodeDegreeByAs, dictionary,
+								NodeDegreeRanker.max(ks));
+						phase.in(adjacency.size())
+							.out(ret.length)
+							.stop();
+						NodeDegreeRanker.logTopK(ret, ks, nodeDegreeByAs);
+						return ret;
+					}
+				});
+			}
+
+			// Task 3
+			// Annotate the relationship of each AS pair
+
+			AnnotatedAsGraph graph = AsGraphAnnotator.annotate(asPaths,
+					adjacency, dictionary, TRANSIT_COUNT_THRESHOLD,
+					DEGREE_SIZE_RATIO, PARALLELISM, metrics);
+			AsRelationships relationships = graph.relationships();
+			File file;
+			if (OUT_SNAPSHOT_FILE_PATH != null) {
+				phase = metrics.start("Write snapshot");
+				file = new File(OUT_SNAPSHOT_FILE_PATH);
+				graph.write(file);
+				phase.in(adjacency.edges())
+					.out(adjacency.edges())
+					.stop();
+				log.info("Saved {}", file.getAbsolutePath());
+			}
+			if (OUT_RELATIONSHIPS_FILE_PATH != null) {
+				phase = metrics.start("Write relationships");
+				int nLines = AsGraphAnnotator.write(relationships,
+						dictionary, OUT_RELATIONSHIPS_FILE_PATH);
+				phase.in(adjacency.edges())
+					.out(nLines)
+					.stop();
+				file = new File(OUT_RELATIONSHIPS_FILE_PATH);
+				log.info("Saved {}", file.getAbsolutePath());
+			}
+
+			// Task 4
+			// Classify ASes that have at least one relationship
+
+			BitSet[] classes = AsClassifier.classify(relationships,
+					AsClassifier.ases(relationships), dictionary,
+					AsClassifier.PRUNING_ROUNDS, metrics);
+			phase = metrics.start("Write classes");
+			int nLines = AsClassifier.write(classes, dictionary, OUT_FILE_PATH);
+			phase.in(nLines)
+				.out(nLines)
+				.stop();
+			file = new File(OUT_FILE_PATH);
+			log.info("Saved {}", file.getAbsolutePath());
+			if (top != null) {
+				for (File f : NodeDegreeRanker.write(get(top), ks,
+						dictionary, OUT_TOP_K_FILE_PATH)) {
+					log.info("Saved {}", f.getAbsolutePath());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		log.info("{}", rejections);
+		File file = metrics.write(OUT_METRICS_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
+
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for task");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+}
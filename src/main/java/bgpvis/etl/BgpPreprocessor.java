@@ -1,34 +1,107 @@
 package bgpvis.etl;
 
 import static bgpvis.util.StringUtil.*;
-import static bgpvis.AsPath.*;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Strings;
-
+import bgpvis.AsDictionary;
+import bgpvis.AsPath;
+import bgpvis.AsPathCorpus;
+import bgpvis.AsPathSet;
+import bgpvis.util.LineWriter;
+import bgpvis.util.Metrics;
 import bgpvis.util.MyFileWriter;
-import bgpvis.validation.ValidationResult;
+import bgpvis.validation.Rejections;
 
 public final class BgpPreprocessor {
 	private static final Logger log = LoggerFactory.getLogger(BgpPreprocessor.class);
 	private static final String IN_FILE_PATH = System.getProperty("bgp.in.file");
 	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
-	
+
+	/**
+	 * Optional binary corpus of the unique AS paths, that Tasks 2 and 3 can
+	 * read instead of the text output.
+	 */
+	private static final String OUT_CORPUS_FILE_PATH = System.getProperty("bgp.out.corpus-file");
+
+	/**
+	 * Optional file of the lines that are not AS paths or that contain an AS
+	 * set.
+	 */
+	private static final String OUT_QUARANTINE_FILE_PATH = System.getProperty("bgp.out.quarantine-file");
+
+	/**
+	 * Metrics of each phase, next to the output file by default
+	 */
+	private static final String OUT_METRICS_FILE_PATH = System.getProperty(
+			"bgp.out.metrics-file", Metrics.filePath(OUT_FILE_PATH));
+
+	/**
+	 * Unique AS paths are written in the order that they first appear in the
+	 * input.
+	 */
+	public static final String FIRST_OCCURRENCE = "first";
+
+	/**
+	 * Unique AS paths are written in lexicographic order.
+	 */
+	public static final String SORTED = "sorted";
+
+	private static final String ORDER = System.getProperty("bgp.out.order",
+			FIRST_OCCURRENCE);
+
+	/**
+	 * Number of threads that read the input file. The file is read on the main
+	 * thread if this is 1.
+	 */
+	private static final int PARALLELISM = Integer.getInteger(
+			"bgp.in.parallelism", Runtime.getRuntime()
+				.availableProcessors());
+
+	/**
+	 * The input file is split into more chunks than threads, so that a slow
+	 * chunk does not hold up the other threads.
+	 */
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/**
+	 * Smallest chunk in bytes, so that a small file is not split for nothing.
+	 */
+	private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+	/**
+	 * Use for collection sizing, number of unique AS paths
+	 */
+	private static final int EXPECTED_NUMBER_OF_AS_PATHS = 649412 * 2;
+
+	/**
+	 * Use for collection sizing
+	 */
+	private static final int EXPECTED_NUMBER_OF_ASES = 65536;
+
 	/**
 	 * Use for collection sizing
 	 */
-	private static final int EXPECTED_NUMBER_OF_AS_PATHS = 4286060 * 2;
+	private static final int EXPECTED_PATH_LENGTH = 4;
+
+	/**
+	 * ASPATH attribute name is present in Task 1 input file.
+	 */
+	private static final boolean ASPATH_ATTRIBUTE_PRESENT = true;
 
 	private BgpPreprocessor() {
 		// Private constructor, not meant to be instantiated
@@ -36,61 +109,380 @@ public final class BgpPreprocessor {
 
 	public static void main(String[] args) throws IOException {
 		long startTime = System.currentTimeMillis();
-		
-		BufferedReader br = null;
+		if (!FIRST_OCCURRENCE.equals(ORDER) && !SORTED.equals(ORDER)) {
+			throw new IllegalArgumentException(concat(
+					"Output order must be one of [", FIRST_OCCURRENCE, ", ",
+					SORTED, "] but was [", ORDER, "]"));
+		}
 		File file = new File(IN_FILE_PATH);
-		String line = "";
-		ValidationResult validation;
-		List<String> out = new ArrayList<String>(EXPECTED_NUMBER_OF_AS_PATHS);
-		Set<String> asSet = new HashSet<String>(EXPECTED_NUMBER_OF_AS_PATHS);
-		Set<String> pathSet = new HashSet<String>(EXPECTED_NUMBER_OF_AS_PATHS);
-		String asPath;
-
+		AsDictionary ases = new AsDictionary(EXPECTED_NUMBER_OF_ASES);
+		LineWriter out = null;
+		AsPathSet pathSet;
+		Rejections rejections = new Rejections(OUT_QUARANTINE_FILE_PATH);
+		Metrics metrics = new Metrics(BgpPreprocessor.class.getSimpleName());
+		Metrics.Phase phase;
 		try {
-			br = new BufferedReader(new FileReader(file));
-			while ((line = br.readLine()) != null) {
-				line = trim(line);
-				
-				// Skip AS paths that contain AS set
+			out = MyFileWriter.open(OUT_FILE_PATH);
+			pathSet = preprocess(file, ases, out, rejections, metrics);
+			out.close();
+			out = null;
+			log.info("Saved {}", new File(OUT_FILE_PATH).getAbsolutePath());
+			if (OUT_CORPUS_FILE_PATH != null) {
+				phase = metrics.start("Write corpus file");
+				file = new File(OUT_CORPUS_FILE_PATH);
+				CorpusFile.write(file, pathSet.paths(), order(pathSet, ases),
+						ases);
+				phase.in(pathSet.size())
+					.out(pathSet.size())
+					.stop();
+				log.info("Saved {}", file.getAbsolutePath());
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			rejections.close();
+		}
+		log.info("{}", rejections);
+		file = metrics.write(OUT_METRICS_FILE_PATH);
+		log.info("Saved {}", file.getAbsolutePath());
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
 
-				if (containsAsSet(line)) {
-					continue;
-				}
-				
-				validation = validate(line);
-				if (validation.hasErrors()) {
-					log.warn("{}", validation);
+	/**
+	 * Read the unique AS paths of a RIB file, with duplicate ASes removed.
+	 *
+	 * @param file
+	 *            RIB file
+	 * @param ases
+	 *            unique ASes
+	 * @param out
+	 *            writer of Task 1 output, or null if there is no text output
+	 * @param rejections
+	 *            lines that are not AS paths or that contain an AS set
+	 * @param metrics
+	 * @return unique AS paths in first-occurrence order
+	 * @throws IOException
+	 */
+	public static AsPathSet preprocess(File file, AsDictionary ases,
+			LineWriter out, Rejections rejections, Metrics metrics)
+			throws IOException {
+		AsPathSet ret;
+		Metrics.Phase phase = metrics.start("Read unique AS paths");
+		if (PARALLELISM > 1 || SORTED.equals(ORDER)) {
+			ret = writeChunks(file, out, ases, rejections, phase);
+		} else {
+			ret = write(file, out, ases, rejections, phase);
+		}
+		phase.out(ret.size())
+			.stop();
+		if (out == null) {
+			return ret;
+		}
+		if (SORTED.equals(ORDER)) {
+			phase = metrics.start("Write sorted AS paths");
+			for (int p : sort(ret.paths(), ases)) {
+				writePath(out, ret.paths(), p, ases);
+			}
+			phase.in(ret.size())
+				.out(ret.size())
+				.stop();
+		}
+		out.write("Number of ASes: ")
+			.write(ases.size())
+			.newLine()
+			.write("Number of AS paths: ")
+			.write(ret.size());
+		return ret;
+	}
+
+	/**
+	 * Returns the order in which the unique AS paths are written.
+	 *
+	 * @param pathSet
+	 * @param ases
+	 * @return path indexes, or null for first-occurrence order
+	 */
+	private static int[] order(AsPathSet pathSet, AsDictionary ases) {
+		if (SORTED.equals(ORDER)) {
+			return sort(pathSet.paths(), ases);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the current line of the reader is an AS path, and
+	 * removes duplicate ASes from it. Other lines are counted.
+	 *
+	 * @param reader
+	 * @param rejections
+	 * @return
+	 */
+	private static boolean accept(RibReader reader, Rejections rejections) {
+
+		// Skip AS paths that contain AS set
+
+		if (reader.status() == RibReader.AS_SET) {
+			rejections.reject(Rejections.AS_SET, reader.line());
+			return false;
+		}
+
+		if (reader.status() == RibReader.REJECTED) {
+			rejections.reject(reader.validation());
+			return false;
+		}
+
+		// Remove duplicate ASes from a path
+
+		reader.removeDuplicateAs();
+		return true;
+	}
+
+	/**
+	 * Map the ASes of the current line of the reader to ids.
+	 *
+	 * @param reader
+	 * @param ases
+	 * @param ids
+	 *            buffer that is reused if it is large enough
+	 * @return AS ids of the path
+	 */
+	private static int[] ids(RibReader reader, AsDictionary ases, int[] ids) {
+		int length = reader.length();
+		int[] ret = ids.length < length ? new int[length] : ids;
+		for (int i = 0; i < length; i++) {
+			ret[i] = ases.id(reader.as(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Read the file on the current thread, and write each unique path as soon
+	 * as it is accepted, so that only the dedup sets are held in memory.
+	 *
+	 * @param file
+	 * @param out
+	 *            writer of unique AS paths, or null
+	 * @param ases
+	 *            unique ASes
+	 * @param rejections
+	 * @param phase
+	 *            counts the lines that are read
+	 * @return unique AS paths
+	 * @throws IOException
+	 */
+	private static AsPathSet write(File file, LineWriter out,
+			AsDictionary ases, Rejections rejections, Metrics.Phase phase)
+			throws IOException {
+		AsPathSet pathSet = new AsPathSet(EXPECTED_NUMBER_OF_AS_PATHS,
+				EXPECTED_NUMBER_OF_AS_PATHS * EXPECTED_PATH_LENGTH);
+		RibReader reader = new RibReader(file, ASPATH_ATTRIBUTE_PRESENT);
+		int[] ids = new int[64];
+		try {
+			while (reader.next()) {
+				if (!accept(reader, rejections)) {
 					continue;
 				}
-				
-				// Convert the line to AS path output format
-				
-				asPath = removeAttributePrefix(line);
-				
-				// Remove duplicate ASes from a path
-				
-				asPath = removeDuplicateAs(asPath);
-				
+				ids = ids(reader, ases, ids);
+
 				// Duplicate path
-				
-				if (pathSet.contains(asPath)) {
+
+				if (!pathSet.add(ids, reader.length()) || out == null) {
 					continue;
 				}
-				pathSet.add(asPath);
-				out.add(asPath);
-				asSet.addAll(asSet(asPath));
+				reader.writeAsPath(out);
+				out.newLine();
+			}
+			phase.in(reader.lines());
+		} finally {
+			reader.close();
+		}
+		return pathSet;
+	}
+
+	/**
+	 * Split the file into line-aligned chunks that are read and deduplicated
+	 * by a pool of threads. Chunks are merged in file order, so the output is
+	 * the same as reading the file on one thread. Unique paths are written in
+	 * first-occurrence order, unless the output is sorted.
+	 *
+	 * @param file
+	 * @param out
+	 *            writer of unique AS paths, or null
+	 * @param ases
+	 *            unique ASes
+	 * @param rejections
+	 * @param phase
+	 *            counts the lines that are read
+	 * @return unique AS paths
+	 * @throws IOException
+	 */
+	private static AsPathSet writeChunks(File file, LineWriter out,
+			AsDictionary ases, Rejections rejections, Metrics.Phase phase)
+			throws IOException {
+		int nChunks = (int) Math.max(1, Math.min(PARALLELISM
+				* CHUNKS_PER_WORKER, file.length() / MIN_CHUNK_SIZE));
+		long[] bounds = RibReader.split(file, nChunks);
+		log.info("Read {} chunks on {} threads", nChunks, PARALLELISM);
+		ExecutorService pool = Executors.newFixedThreadPool(PARALLELISM);
+		AsPathSet pathSet = new AsPathSet(EXPECTED_NUMBER_OF_AS_PATHS,
+				EXPECTED_NUMBER_OF_AS_PATHS * EXPECTED_PATH_LENGTH);
+		boolean sorted = SORTED.equals(ORDER);
+		int[] ids = new int[64];
+		try {
+			List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>(nChunks);
+			for (int i = 0; i < nChunks; i++) {
+				futures.add(pool.submit(new Chunk(file, bounds[i],
+						bounds[i + 1], rejections.chunk())));
+			}
+			Chunk chunk;
+			int[] idByChunkId;
+			AsPathCorpus chunkPaths;
+			int length;
+			int start;
+			for (int i = 0; i < nChunks; i++) {
+				chunk = get(futures.get(i));
+
+				// Release the chunk once it is merged
+
+				futures.set(i, null);
+				phase.in(chunk.lines);
+				rejections.merge(chunk.rejections);
+				idByChunkId = new int[chunk.ases.size()];
+				for (int id = 0; id < idByChunkId.length; id++) {
+					idByChunkId[id] = ases.id(chunk.ases.asNumber(id));
+				}
+				chunkPaths = chunk.paths.paths();
+				for (int p = 0; p < chunkPaths.size(); p++) {
+					length = chunkPaths.length(p);
+					start = chunkPaths.start(p);
+					if (ids.length < length) {
+						ids = new int[length];
+					}
+					for (int k = 0; k < length; k++) {
+						ids[k] = idByChunkId[chunkPaths.hop(start + k)];
+					}
+					if (pathSet.add(ids, length) && !sorted && out != null) {
+						writePath(out, pathSet.paths(), pathSet.size() - 1, ases);
+					}
+				}
 			}
-			out.add(concat("Number of ASes: ", asSet.size()));
-			out.add(concat("Number of AS paths: ", pathSet.size()));
-			file = MyFileWriter.write(out, OUT_FILE_PATH);
-			log.info("Saved {}", file.getAbsolutePath());
 		} finally {
-			if (br != null) {
-				br.close();
+			pool.shutdownNow();
+		}
+		return pathSet;
+	}
+
+	private static void writePath(LineWriter out, AsPathCorpus paths,
+			int path, AsDictionary ases) throws IOException {
+		long[] asPath = new long[paths.length(path)];
+		int start = paths.start(path);
+		for (int i = 0; i < asPath.length; i++) {
+			asPath[i] = ases.asNumber(paths.hop(start + i));
+		}
+		AsPath.write(out, asPath, asPath.length);
+		out.newLine();
+	}
+
+	/**
+	 * Sort the AS paths in lexicographic order of their output format,
+	 * without building a string for each path.
+	 *
+	 * @param paths
+	 * @param ases
+	 * @return path indexes in sorted order
+	 */
+	private static int[] sort(final AsPathCorpus paths,
+			final AsDictionary ases) {
+		Integer[] sorted = new Integer[paths.size()];
+		for (int p = 0; p < sorted.length; p++) {
+			sorted[p] = p;
+		}
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer p1, Integer p2) {
+				int i = paths.start(p1);
+				int j = paths.start(p2);
+				int end1 = paths.end(p1);
+				int end2 = paths.end(p2);
+				int c;
+				for (; i < end1 && j < end2; i++, j++) {
+					c = AsDictionary.compareLexicographically(
+							ases.asNumber(paths.hop(i)),
+							ases.asNumber(paths.hop(j)));
+					if (c != 0) {
+						return c;
+					}
+				}
+
+				// AS separator sorts before any digit, so a path that is a
+				// prefix of the other comes first
+
+				return (end1 - i) - (end2 - j);
 			}
+		});
+		int[] ret = new int[sorted.length];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = sorted[i];
+		}
+		return ret;
+	}
+
+	private static Chunk get(Future<Chunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			throw new InterruptedIOException("Interrupted while reading chunk");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Unique AS paths in first-occurrence order, unique ASes, and rejected
+	 * lines, of a byte range of the input file.
+	 */
+	private static final class Chunk implements Callable<Chunk> {
+		private final File file;
+		private final long start;
+		private final long end;
+		private final Rejections rejections;
+		private final AsPathSet paths = new AsPathSet();
+		private final AsDictionary ases = new AsDictionary();
+		private long lines;
+
+		private Chunk(File file, long start, long end, Rejections rejections) {
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.rejections = rejections;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+			RibReader reader = new RibReader(file, ASPATH_ATTRIBUTE_PRESENT,
+					start, end);
+			int[] ids = new int[64];
+			try {
+				while (reader.next()) {
+					if (!accept(reader, rejections)) {
+						continue;
+					}
+					ids = ids(reader, ases, ids);
+					paths.add(ids, reader.length());
+				}
+				lines = reader.lines();
+			} finally {
+				reader.close();
+			}
+			return this;
 		}
-		long elapsedTime = System.currentTimeMillis() - startTime;
-		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
 	}
 
 }
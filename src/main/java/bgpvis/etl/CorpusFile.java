@@ -0,0 +1,319 @@
+package bgpvis.etl;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import bgpvis.AsDictionary;
+import bgpvis.AsPathCorpus;
+import bgpvis.validation.Rejections;
+
+/**
+ * Binary file format of AS paths, to hand off a preprocessed corpus between
+ * tasks without parsing and validating text again.
+ * <p>
+ * The file starts with a header: magic number, version, number of ASes,
+ * number of paths and number of hops. Then the AS dictionary follows, as the
+ * AS number of each id. Then each path follows, as its length and the
+ * difference of each AS id from the previous AS id in the path. Numbers are
+ * varint encoded, and differences are zigzag encoded so that small negative
+ * numbers are short too.
+ * <p>
+ * AS ids are numbered in order of first appearance in the written paths, so
+ * loading the file assigns the same ids as reading the same paths from text.
+ */
+public final class CorpusFile {
+
+	/**
+	 * "BGPC" in ASCII
+	 */
+	private static final int MAGIC = 0x42475043;
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private CorpusFile() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	/**
+	 * Returns true if the file starts with the magic number of a corpus file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isCorpusFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(4);
+			FileChannel channel = in.getChannel();
+			while (buf.hasRemaining() && channel.read(buf) > 0) {
+				// Fill the buffer
+			}
+			return !buf.hasRemaining() && buf.getInt(0) == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write the AS paths to a corpus file.
+	 *
+	 * @param file
+	 * @param paths
+	 * @param order
+	 *            indexes of the paths in the order they are written, or null to
+	 *            write every path in corpus order
+	 * @param dictionary
+	 *            AS dictionary of the paths
+	 * @throws IOException
+	 */
+	public static void write(File file, AsPathCorpus paths, int[] order,
+			AsDictionary dictionary) throws IOException {
+		int nPaths = order == null ? paths.size() : order.length;
+
+		// Number AS ids in order of first appearance
+
+		int[] idByAs = new int[dictionary.size()];
+		Arrays.fill(idByAs, -1);
+		long[] asById = new long[dictionary.size()];
+		int nAses = 0;
+		long nHops = 0;
+		int p;
+		int as;
+		for (int i = 0; i < nPaths; i++) {
+			p = order == null ? i : order[i];
+			for (int k = paths.start(p); k < paths.end(p); k++) {
+				as = paths.hop(k);
+				if (idByAs[as] < 0) {
+					idByAs[as] = nAses;
+					asById[nAses++] = dictionary.asNumber(as);
+				}
+			}
+			nHops += paths.length(p);
+		}
+		Output out = new Output(file);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeVarLong(nAses);
+			out.writeVarLong(nPaths);
+			out.writeVarLong(nHops);
+			for (int id = 0; id < nAses; id++) {
+				out.writeVarLong(asById[id]);
+			}
+			int prev;
+			int curr;
+			for (int i = 0; i < nPaths; i++) {
+				p = order == null ? i : order[i];
+				out.writeVarLong(paths.length(p));
+				prev = 0;
+				for (int k = paths.start(p); k < paths.end(p); k++) {
+					curr = idByAs[paths.hop(k)];
+					out.writeVarLong(zigzag(curr - prev));
+					prev = curr;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read every AS path of a corpus file into the corpus, mapping each AS to
+	 * its id.
+	 *
+	 * @param file
+	 * @param paths
+	 * @param dictionary
+	 * @return number of AS paths that are read
+	 * @throws IOException
+	 */
+	public static int read(File file, AsPathCorpus paths,
+			AsDictionary dictionary) throws IOException {
+		Input in = new Input(file);
+		try {
+			int magic = in.readInt();
+			if (magic != MAGIC) {
+				throw new IOException(concat("Not a corpus file [",
+						file.getAbsolutePath(), "]"));
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(concat("Corpus file version must be [",
+						VERSION, "] but was [", version, "]"));
+			}
+			int nAses = (int) in.readVarLong();
+			int nPaths = (int) in.readVarLong();
+			in.readVarLong();
+			int[] idByFileId = new int[nAses];
+			for (int id = 0; id < nAses; id++) {
+				idByFileId[id] = dictionary.id(in.readVarLong());
+			}
+			int[] ids = new int[64];
+			int length;
+			int curr;
+			for (int p = 0; p < nPaths; p++) {
+				length = (int) in.readVarLong();
+				if (ids.length < length) {
+					ids = new int[length];
+				}
+				curr = 0;
+				for (int i = 0; i < length; i++) {
+					curr += unzigzag(in.readVarLong());
+					ids[i] = idByFileId[curr];
+				}
+				paths.add(ids, length);
+			}
+			return nPaths;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read every AS path of the file into the corpus. The file may be a corpus
+	 * file, or a text file that is read with {@link RibReader}.
+	 *
+	 * @param file
+	 * @param attributePresent
+	 *            true if each AS path in a text file starts with the ASPATH
+	 *            attribute name
+	 * @param paths
+	 * @param dictionary
+	 * @param rejections
+	 *            lines of a text file that are not AS paths
+	 * @return number of AS paths that are read
+	 * @throws IOException
+	 */
+	public static int load(File file, boolean attributePresent,
+			AsPathCorpus paths, AsDictionary dictionary, Rejections rejections)
+			throws IOException {
+		if (isCorpusFile(file)) {
+			return read(file, paths, dictionary);
+		}
+		RibReader reader = new RibReader(file, attributePresent);
+		try {
+			return reader.read(paths, dictionary, rejections);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static final class Output {
+		private final FileOutputStream out;
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private Output(File file) throws IOException {
+			out = new FileOutputStream(file);
+			channel = out.getChannel();
+		}
+
+		private void ensure(int n) throws IOException {
+			if (buf.remaining() < n) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			buf.clear();
+		}
+
+		private void writeInt(int n) throws IOException {
+			ensure(4);
+			buf.putInt(n);
+		}
+
+		private void writeVarLong(long n) throws IOException {
+			ensure(10);
+			while ((n & ~0x7FL) != 0) {
+				buf.put((byte) ((n & 0x7F) | 0x80));
+				n >>>= 7;
+			}
+			buf.put((byte) n);
+		}
+
+		private void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	private static final class Input {
+		private final FileInputStream in;
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+		private Input(File file) throws IOException {
+			in = new FileInputStream(file);
+			channel = in.getChannel();
+			buf.flip();
+		}
+
+		private void ensure(int n) throws IOException {
+			if (buf.remaining() >= n) {
+				return;
+			}
+			buf.compact();
+			while (buf.position() < n) {
+				if (channel.read(buf) < 0) {
+					throw new EOFException("Corpus file is truncated");
+				}
+			}
+			buf.flip();
+		}
+
+		private int readInt() throws IOException {
+			ensure(4);
+			return buf.getInt();
+		}
+
+		private byte readByte() throws IOException {
+			if (!buf.hasRemaining()) {
+				ensure(1);
+			}
+			return buf.get();
+		}
+
+		private long readVarLong() throws IOException {
+			long ret = 0;
+			byte b;
+			for (int shift = 0; shift < 64; shift += 7) {
+				b = readByte();
+				ret |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return ret;
+				}
+			}
+			throw new IOException("Malformed varint in corpus file");
+		}
+
+		private void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
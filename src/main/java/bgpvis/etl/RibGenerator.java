@@ -0,0 +1,522 @@
+package bgpvis.etl;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bgpvis.util.LineWriter;
+import bgpvis.util.MyFileWriter;
+
+/**
+ * Generates a synthetic RIB file of AS paths, in the same format as Task 1
+ * input, for scale testing without production RIB dumps.
+ * <p>
+ * The AS topology starts from a clique of tier-1 ASes that peer with each
+ * other. Every other AS buys transit from one to three providers with smaller
+ * ids, picked with probability proportional to their number of customers
+ * (preferential attachment), so node degrees follow a power law. Some ASes
+ * also peer with another AS picked the same way.
+ * <p>
+ * Each origin AS announces a number of prefixes from a heavy-tailed
+ * distribution, and each prefix is seen by a fixed set of vantage points. The
+ * AS path from a vantage point to an origin is valley-free: it goes up
+ * customer-to-provider edges, crosses at most one peer-to-peer edge, and then
+ * goes down provider-to-customer edges, taking the shortest such path. Some
+ * prefixes are announced with AS prepending or with an AS set, as in real RIB
+ * dumps.
+ * <p>
+ * The same seed and parameters always generate the same file.
+ */
+public final class RibGenerator {
+	private static final Logger log = LoggerFactory.getLogger(RibGenerator.class);
+	private static final String OUT_FILE_PATH = System.getProperty("bgp.out.file");
+
+	/**
+	 * Number of RIB lines, 4.3M by default (size of the Task 1 input file)
+	 */
+	private static final long LINES = Long.getLong("bgp.in.lines", 4300000);
+
+	/**
+	 * Number of ASes, about 60k for the default number of lines
+	 */
+	private static final String ASES = System.getProperty("bgp.in.ases");
+	private static final int VANTAGE_POINTS = Integer.getInteger(
+			"bgp.in.vantage-points", 12);
+	private static final long SEED = Long.getLong("bgp.in.seed", 1);
+
+	private static final String ASPATH_ATTRIBUTE = "ASPATH:";
+	private static final int LINES_PER_AS = 70;
+	private static final int MIN_ASES = 100;
+	private static final int TIER_1_ASES = 12;
+
+	/**
+	 * Probability of a second and third provider, of a peer, and of picking a
+	 * provider uniformly
+	 */
+	private static final double MULTI_HOMED = 0.3;
+	private static final double TRI_HOMED = 0.1;
+	private static final double PEERING = 0.15;
+	private static final double UNIFORM_PROVIDER = 0.1;
+
+	/**
+	 * Pareto shape and cap of the number of prefixes per origin AS
+	 */
+	private static final double PREFIX_SHAPE = 1.5;
+	private static final int MAX_PREFIXES = 1000;
+
+	/**
+	 * Probability that a prefix is announced with origin prepending, that a
+	 * line has prepending along the path, and that a prefix is announced with
+	 * an AS set
+	 */
+	private static final double ORIGIN_PREPENDING = 0.1;
+	private static final double PATH_PREPENDING = 0.02;
+	private static final double AS_SET = 0.001;
+
+	/**
+	 * AS numbers above the 16-bit private range are taken from the 32-bit
+	 * range
+	 */
+	private static final int MAX_16_BIT_AS = 64511;
+	private static final long FIRST_32_BIT_AS = 131072;
+
+	private final Random random;
+	private final int nAs;
+	private final long[] asNumbers;
+
+	/**
+	 * Providers of each AS, in compressed sparse row form
+	 */
+	private final int[] providerOffsets;
+	private final int[] providers;
+
+	/**
+	 * Peers of each AS, in compressed sparse row form
+	 */
+	private final int[] peerOffsets;
+	private final int[] peers;
+
+	private final int[] vantagePoints;
+	private final double prefixScale;
+
+	/**
+	 * Up-hill tree of the current origin: ASes that reach the origin down
+	 * provider-to-customer edges, with the distance to the origin and the
+	 * next AS towards it. An AS is in the tree if its stamp is the current
+	 * stamp.
+	 */
+	private final int[] stamps;
+	private final int[] distances;
+	private final int[] nextHops;
+	private final int[] queue;
+	private int stamp;
+
+	/**
+	 * Origins in a random order, AS paths from each vantage point to the
+	 * current origin, and the prefixes and lines left of it
+	 */
+	private final int[] origins;
+	private int nextOrigin;
+	private final int[][] paths;
+	private int prefixesLeft;
+	private int vantagePointsLeft;
+	private int originPrepending;
+	private boolean asSet;
+
+	/**
+	 * @param nAs
+	 *            number of ASes
+	 * @param nVantagePoints
+	 *            number of ASes that see every prefix
+	 * @param linesPerOrigin
+	 *            mean number of RIB lines per origin AS, used to scale the
+	 *            number of prefixes
+	 * @param seed
+	 */
+	public RibGenerator(int nAs, int nVantagePoints, double linesPerOrigin,
+			long seed) {
+		if (nAs < TIER_1_ASES * 2 || nVantagePoints <= 0
+				|| nVantagePoints > nAs) {
+			throw new IllegalArgumentException(concat("Number of ASes [", nAs,
+					"] must be at least [", TIER_1_ASES * 2,
+					"] and number of vantage points [", nVantagePoints,
+					"] must be between 1 and the number of ASes"));
+		}
+		this.random = new Random(seed);
+		this.nAs = nAs;
+		asNumbers = asNumbers(nAs, random);
+
+		// Providers by preferential attachment. Each AS appears in the
+		// endpoint list once per customer, and tier-1 ASes once more. A few
+		// providers are picked uniformly, so that new ASes get customers.
+
+		providerOffsets = new int[nAs + 1];
+		int[] providerList = new int[nAs * 2];
+		int nProviders = 0;
+		int[] endpoints = new int[nAs * 4];
+		int nEndpoints = 0;
+		int[] peerPairs = new int[nAs / 2];
+		int nPeerPairs = 0;
+		int n;
+		int provider;
+		int peer;
+		for (int as = 0; as < nAs; as++) {
+			providerOffsets[as] = nProviders;
+			if (as >= TIER_1_ASES) {
+				n = 1;
+				if (random.nextDouble() < MULTI_HOMED) {
+					n++;
+					if (random.nextDouble() < TRI_HOMED) {
+						n++;
+					}
+				}
+				for (int i = 0; i < n; i++) {
+					provider = random.nextDouble() < UNIFORM_PROVIDER ? random.nextInt(as)
+							: endpoints[random.nextInt(nEndpoints)];
+					if (contains(providerList, providerOffsets[as],
+							nProviders, provider)) {
+						continue;
+					}
+					if (nProviders == providerList.length) {
+						providerList = Arrays.copyOf(providerList,
+								nProviders * 2);
+					}
+					providerList[nProviders++] = provider;
+					if (nEndpoints == endpoints.length) {
+						endpoints = Arrays.copyOf(endpoints, nEndpoints * 2);
+					}
+					endpoints[nEndpoints++] = provider;
+				}
+
+				// Peer with a transit AS other than a tier-1 AS
+
+				if (random.nextDouble() < PEERING) {
+					peer = endpoints[random.nextInt(nEndpoints)];
+					if (peer >= TIER_1_ASES
+							&& !contains(providerList, providerOffsets[as],
+									nProviders, peer)) {
+						if (nPeerPairs + 2 > peerPairs.length) {
+							peerPairs = Arrays.copyOf(peerPairs,
+									peerPairs.length * 2 + 2);
+						}
+						peerPairs[nPeerPairs++] = as;
+						peerPairs[nPeerPairs++] = peer;
+					}
+				}
+			} else {
+				endpoints[nEndpoints++] = as;
+			}
+		}
+		providerOffsets[nAs] = nProviders;
+		providers = Arrays.copyOf(providerList, nProviders);
+
+		// Tier-1 ASes peer with each other
+
+		peerOffsets = new int[nAs + 1];
+		for (int i = 0; i < nPeerPairs; i++) {
+			peerOffsets[peerPairs[i] + 1]++;
+		}
+		for (int as = 0; as < TIER_1_ASES; as++) {
+			peerOffsets[as + 1] += TIER_1_ASES - 1;
+		}
+		for (int as = 0; as < nAs; as++) {
+			peerOffsets[as + 1] += peerOffsets[as];
+		}
+		peers = new int[peerOffsets[nAs]];
+		int[] fill = Arrays.copyOf(peerOffsets, nAs);
+		for (int as = 0; as < TIER_1_ASES; as++) {
+			for (int other = 0; other < TIER_1_ASES; other++) {
+				if (other != as) {
+					peers[fill[as]++] = other;
+				}
+			}
+		}
+		for (int i = 0; i < nPeerPairs; i += 2) {
+			peers[fill[peerPairs[i]]++] = peerPairs[i + 1];
+			peers[fill[peerPairs[i + 1]]++] = peerPairs[i];
+		}
+
+		// Vantage points are distinct ASes of any size
+
+		vantagePoints = new int[nVantagePoints];
+		int[] ases = shuffle(nAs, random);
+		System.arraycopy(ases, 0, vantagePoints, 0, nVantagePoints);
+		origins = shuffle(nAs, random);
+
+		// Mean of a Pareto distribution is shape * scale / (shape - 1)
+
+		double prefixesPerOrigin = Math.max(1, linesPerOrigin / nVantagePoints);
+		prefixScale = prefixesPerOrigin * (PREFIX_SHAPE - 1) / PREFIX_SHAPE;
+
+		stamps = new int[nAs];
+		distances = new int[nAs];
+		nextHops = new int[nAs];
+		queue = new int[nAs];
+		paths = new int[nVantagePoints][];
+	}
+
+	private static boolean contains(int[] values, int from, int to, int value) {
+		for (int i = from; i < to; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int[] shuffle(int n, Random random) {
+		int[] ret = new int[n];
+		for (int i = 0; i < n; i++) {
+			ret[i] = i;
+		}
+		int j;
+		int tmp;
+		for (int i = n - 1; i > 0; i--) {
+			j = random.nextInt(i + 1);
+			tmp = ret[i];
+			ret[i] = ret[j];
+			ret[j] = tmp;
+		}
+		return ret;
+	}
+
+	/**
+	 * Distinct AS numbers in random order, from the 16-bit range and then
+	 * from the 32-bit range.
+	 */
+	private static long[] asNumbers(int nAs, Random random) {
+		int[] order = shuffle(nAs, random);
+		long[] ret = new long[nAs];
+		for (int as = 0; as < nAs; as++) {
+			ret[as] = order[as] < MAX_16_BIT_AS ? order[as] + 1
+					: FIRST_32_BIT_AS + order[as];
+		}
+		return ret;
+	}
+
+	/**
+	 * Number of ASes in the topology.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return nAs;
+	}
+
+	/**
+	 * Returns the next RIB line, in the format "ASPATH: 3356 1299 13335".
+	 *
+	 * @return
+	 */
+	public String next() {
+		while (vantagePointsLeft == 0) {
+			if (prefixesLeft == 0) {
+				nextOrigin();
+			}
+			prefixesLeft--;
+			vantagePointsLeft = vantagePoints.length;
+			originPrepending = random.nextDouble() < ORIGIN_PREPENDING ? 1 + random.nextInt(3)
+					: 0;
+			asSet = random.nextDouble() < AS_SET;
+		}
+		vantagePointsLeft--;
+		int[] path = paths[vantagePointsLeft];
+		StringBuilder sb = new StringBuilder(ASPATH_ATTRIBUTE.length()
+				+ (path.length + originPrepending + 2) * 7);
+		sb.append(ASPATH_ATTRIBUTE);
+		int prepending = -1;
+		if (path.length > 1 && random.nextDouble() < PATH_PREPENDING) {
+			prepending = random.nextInt(path.length - 1);
+		}
+		for (int i = 0; i < path.length - 1; i++) {
+			sb.append(' ')
+				.append(asNumbers[path[i]]);
+			if (i == prepending) {
+				sb.append(' ')
+					.append(asNumbers[path[i]]);
+			}
+		}
+
+		// Origin, with prepending or aggregated with its provider as an AS
+		// set
+
+		int origin = path[path.length - 1];
+		if (asSet && path.length > 1) {
+			sb.append(" {")
+				.append(asNumbers[origin])
+				.append(',')
+				.append(asNumbers[path[path.length - 2]])
+				.append('}');
+			return sb.toString();
+		}
+		for (int i = 0; i <= originPrepending; i++) {
+			sb.append(' ')
+				.append(asNumbers[origin]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Move to the next origin, in a random order that repeats after every
+	 * AS, and find its AS path from each vantage point.
+	 */
+	private void nextOrigin() {
+		int origin = origins[nextOrigin];
+		nextOrigin = (nextOrigin + 1) % nAs;
+		prefixesLeft = Math.min(MAX_PREFIXES, (int) Math.ceil(prefixScale
+				/ Math.pow(1 - random.nextDouble(), 1 / PREFIX_SHAPE)));
+		upHill(origin);
+		for (int i = 0; i < vantagePoints.length; i++) {
+			paths[i] = path(vantagePoints[i]);
+		}
+	}
+
+	/**
+	 * Find the ASes that reach the origin down provider-to-customer edges,
+	 * by breadth-first search up customer-to-provider edges.
+	 */
+	private void upHill(int origin) {
+		stamp++;
+		int head = 0;
+		int tail = 0;
+		stamps[origin] = stamp;
+		distances[origin] = 0;
+		nextHops[origin] = -1;
+		queue[tail++] = origin;
+		int as;
+		int provider;
+		while (head < tail) {
+			as = queue[head++];
+			for (int i = providerOffsets[as]; i < providerOffsets[as + 1]; i++) {
+				provider = providers[i];
+				if (stamps[provider] != stamp) {
+					stamps[provider] = stamp;
+					distances[provider] = distances[as] + 1;
+					nextHops[provider] = as;
+					queue[tail++] = provider;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Shortest valley-free AS path from the vantage point to the current
+	 * origin: up to an AS in the up-hill tree of the origin, or up to a peer
+	 * of such an AS, then down the tree.
+	 */
+	private int[] path(int vantagePoint) {
+
+		// Breadth-first search up customer-to-provider edges from the vantage
+		// point. The queue of the origin is not needed any more.
+
+		int[] up = new int[nAs < 64 ? nAs : 64];
+		int[] parents = new int[up.length];
+		int[] ups = new int[up.length];
+		int head = 0;
+		int tail = 0;
+		up[tail] = vantagePoint;
+		parents[tail] = -1;
+		ups[tail++] = 0;
+		int best = Integer.MAX_VALUE;
+		int bestUp = -1;
+		int bestTop = -1;
+		int as;
+		int peer;
+		int provider;
+		while (head < tail) {
+			as = up[head];
+			if (ups[head] >= best) {
+				break;
+			}
+			if (stamps[as] == stamp && ups[head] + distances[as] < best) {
+				best = ups[head] + distances[as];
+				bestUp = head;
+				bestTop = -1;
+			}
+			for (int i = peerOffsets[as]; i < peerOffsets[as + 1]; i++) {
+				peer = peers[i];
+				if (stamps[peer] == stamp
+						&& ups[head] + 1 + distances[peer] < best) {
+					best = ups[head] + 1 + distances[peer];
+					bestUp = head;
+					bestTop = peer;
+				}
+			}
+			for (int i = providerOffsets[as]; i < providerOffsets[as + 1]; i++) {
+				provider = providers[i];
+				if (contains(up, 0, tail, provider)) {
+					continue;
+				}
+				if (tail == up.length) {
+					up = Arrays.copyOf(up, tail * 2);
+					parents = Arrays.copyOf(parents, tail * 2);
+					ups = Arrays.copyOf(ups, tail * 2);
+				}
+				up[tail] = provider;
+				parents[tail] = head;
+				ups[tail++] = ups[head] + 1;
+			}
+			head++;
+		}
+
+		// Every AS reaches a tier-1 AS, and tier-1 ASes peer with each other
+
+		int[] ret = new int[best + 1];
+		int i = ups[bestUp];
+		for (int j = bestUp; j >= 0; j = parents[j]) {
+			ret[i--] = up[j];
+		}
+		i = ups[bestUp];
+		as = up[bestUp];
+		if (bestTop >= 0) {
+			ret[++i] = bestTop;
+			as = bestTop;
+		}
+		while (nextHops[as] >= 0) {
+			as = nextHops[as];
+			ret[++i] = as;
+		}
+		return ret;
+	}
+
+	/**
+	 * Write RIB lines to the file.
+	 *
+	 * @param out
+	 * @param lines
+	 *            number of lines
+	 * @throws IOException
+	 */
+	public void write(LineWriter out, long lines) throws IOException {
+		for (long i = 0; i < lines; i++) {
+			out.write(next())
+				.newLine();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		long startTime = System.currentTimeMillis();
+		int nAs = ASES != null ? Integer.parseInt(ASES) : (int) Math.max(
+				MIN_ASES, Math.min(Integer.MAX_VALUE, LINES / LINES_PER_AS));
+		RibGenerator generator = new RibGenerator(nAs, VANTAGE_POINTS,
+				(double) LINES / nAs, SEED);
+		log.info("Generated topology of {} ASes", nAs);
+		LineWriter out = MyFileWriter.open(OUT_FILE_PATH);
+		try {
+			generator.write(out, LINES);
+		} finally {
+			out.close();
+		}
+		log.info("Saved {} lines to {}", LINES,
+				new File(OUT_FILE_PATH).getAbsolutePath());
+		long elapsedTime = System.currentTimeMillis() - startTime;
+		log.info("Done! Run time: {}s\n", elapsedTime / 1000);
+	}
+
+}
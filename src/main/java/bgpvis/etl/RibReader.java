@@ -0,0 +1,496 @@
+package bgpvis.etl;
+
+import static bgpvis.util.StringUtil.concat;
+import static bgpvis.util.StringUtil.trim;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bgpvis.AsDictionary;
+import bgpvis.AsPath;
+import bgpvis.AsPathCorpus;
+import bgpvis.util.Events;
+import bgpvis.util.LineWriter;
+import bgpvis.validation.Rejections;
+import bgpvis.validation.ValidationResult;
+
+/**
+ * Reads AS paths from a text file that is memory mapped, one line at a time.
+ * <p>
+ * Lines are scanned as bytes and AS numbers are parsed straight to longs, so
+ * no string is built for a line that is a valid AS path. Any other line (such
+ * as a line that is not an AS path, or that contains non-ASCII characters) is
+ * decoded to a string and checked with {@link AsPath#isValid(String, boolean)}.
+ * Validation messages are built with {@link AsPath#validate(String, boolean)}
+ * only for rejected lines, so they are the same as before.
+ * <p>
+ * Lines end with a line feed, a carriage return, or a carriage return
+ * followed by a line feed.
+ */
+public final class RibReader implements Closeable {
+	/**
+	 * Line is a valid AS path.
+	 */
+	public static final int ACCEPTED = 0;
+
+	/**
+	 * Line contains an AS set, which is skipped without validation.
+	 */
+	public static final int AS_SET = 1;
+
+	/**
+	 * Line is not a valid AS path.
+	 */
+	public static final int REJECTED = 2;
+
+	private static final byte[] ASPATH_ATTRIBUTE = { 'A', 'S', 'P', 'A', 'T',
+			'H', ':' };
+
+	/**
+	 * Part of the file that is mapped at a time. A line must fit in a window.
+	 */
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	/**
+	 * AS numbers with more digits than this may not fit in a long.
+	 */
+	private static final int MAX_AS_DIGITS = 18;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long end;
+	private final boolean attributePresent;
+	private final Charset charset = Charset.defaultCharset();
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long position;
+	private boolean skipLineFeed;
+	private int lineStart;
+	private int lineEnd;
+	private int status;
+	private long[] ases = new long[64];
+	private int length;
+	private ValidationResult validation;
+	private long lines;
+	private long batchStartNanos = System.nanoTime();
+
+	/**
+	 * @param file
+	 * @param attributePresent
+	 *            true if each AS path starts with the ASPATH attribute name
+	 * @throws IOException
+	 */
+	public RibReader(File file, boolean attributePresent) throws IOException {
+		this(file, attributePresent, 0, file.length());
+	}
+
+	/**
+	 * Read the lines in the byte range [start, end) of the file. The range
+	 * should be aligned to line ends, see {@link #split(File, int)}.
+	 *
+	 * @param file
+	 * @param attributePresent
+	 *            true if each AS path starts with the ASPATH attribute name
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	public RibReader(File file, boolean attributePresent, long start, long end)
+			throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.end = Math.min(end, channel.size());
+		this.attributePresent = attributePresent;
+		this.position = start;
+		map(start);
+	}
+
+	/**
+	 * Split the file into byte ranges of about the same size. Each range
+	 * starts at the beginning of a line.
+	 *
+	 * @param file
+	 * @param n
+	 *            number of ranges
+	 * @return n + 1 boundaries, where range i is [ret[i], ret[i + 1])
+	 * @throws IOException
+	 */
+	public static long[] split(File file, int n) throws IOException {
+		long[] ret = new long[n + 1];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = raf.length();
+			long pos;
+			int b;
+			for (int i = 1; i < n; i++) {
+				pos = Math.max(size / n * i, ret[i - 1]);
+				raf.seek(pos);
+				while ((b = raf.read()) != -1 && b != '\n' && b != '\r') {
+					pos++;
+				}
+				pos++;
+
+				// Carriage return and line feed end the same line
+
+				if (b == '\r' && raf.read() == '\n') {
+					pos++;
+				}
+				ret[i] = Math.min(pos, size);
+			}
+			ret[n] = size;
+		} finally {
+			raf.close();
+		}
+		return ret;
+	}
+
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				Math.max(0, Math.min(WINDOW_SIZE, end - start)));
+	}
+
+	/**
+	 * Returns the byte at the position in the file. If the position is past
+	 * the mapped window, the window is moved to start from the current line.
+	 *
+	 * @param pos
+	 * @return
+	 * @throws IOException
+	 */
+	private byte byteAt(long pos, long lineStartPosition) throws IOException {
+		if (pos >= windowStart + window.limit()) {
+			map(lineStartPosition);
+			if (pos >= windowStart + window.limit()) {
+				throw new IOException(concat("Line at byte [",
+						lineStartPosition, "] is longer than [", WINDOW_SIZE,
+						"] bytes"));
+			}
+		}
+		return window.get((int) (pos - windowStart));
+	}
+
+	/**
+	 * Move to the next line.
+	 *
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		if (skipLineFeed) {
+			skipLineFeed = false;
+			if (position < end && byteAt(position, position) == '\n') {
+				position++;
+			}
+		}
+		if (position >= end) {
+			return false;
+		}
+		long start = position;
+		byte b = 0;
+		while (position < end) {
+			b = byteAt(position, start);
+			if (b == '\n' || b == '\r') {
+				break;
+			}
+			position++;
+		}
+		lineStart = (int) (start - windowStart);
+		lineEnd = (int) (position - windowStart);
+		if (position < end) {
+			skipLineFeed = b == '\r';
+			position++;
+		}
+		validation = null;
+		status = parse();
+		lines++;
+		if (Events.BATCH_SIZE > 0 && lines % Events.BATCH_SIZE == 0) {
+			long now = System.nanoTime();
+			Events.batch(lines, now - batchStartNanos);
+			batchStartNanos = now;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of lines read so far.
+	 *
+	 * @return
+	 */
+	public long lines() {
+		return lines;
+	}
+
+	/**
+	 * Status of the current line: {@link #ACCEPTED}, {@link #AS_SET} or
+	 * {@link #REJECTED}.
+	 *
+	 * @return
+	 */
+	public int status() {
+		return status;
+	}
+
+	/**
+	 * Number of ASes in the current line, if it is accepted.
+	 *
+	 * @return
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * AS number at the index of the current line, if it is accepted.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long as(int i) {
+		return ases[i];
+	}
+
+	/**
+	 * Compresses AS prepending in the current line, if it is accepted.
+	 */
+	public void removeDuplicateAs() {
+		length = AsPath.removeDuplicateAs(ases, length);
+	}
+
+	/**
+	 * Returns the current line in AS path output format, if it is accepted.
+	 *
+	 * @return
+	 */
+	public String asPath() {
+		return AsPath.toString(ases, length);
+	}
+
+	/**
+	 * Write the current line in AS path output format, if it is accepted.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeAsPath(LineWriter out) throws IOException {
+		AsPath.write(out, ases, length);
+	}
+
+	/**
+	 * Validation errors of the current line, if it is rejected.
+	 *
+	 * @return
+	 */
+	public ValidationResult validation() {
+		return validation;
+	}
+
+	/**
+	 * Decode the current line to a string, with whitespace trimmed.
+	 *
+	 * @return
+	 */
+	public String line() {
+		byte[] bytes = new byte[lineEnd - lineStart];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = window.get(lineStart + i);
+		}
+		return trim(new String(bytes, charset));
+	}
+
+	private static boolean whitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == 0x0B
+				|| b == '\f';
+	}
+
+	/**
+	 * Parse the current line as bytes. Falls back to the string validator for
+	 * any line that is not a plain AS path.
+	 *
+	 * @return status of the line
+	 */
+	private int parse() {
+		int start = lineStart;
+		int end = lineEnd;
+		byte b;
+		for (int i = start; i < end; i++) {
+			b = window.get(i);
+			if (b == '{' || b == '}') {
+				return AS_SET;
+			}
+			if (b == ',' || b < 0) {
+				return parseString();
+			}
+		}
+		while (start < end && whitespace(window.get(start))) {
+			start++;
+		}
+		while (end > start && whitespace(window.get(end - 1))) {
+			end--;
+		}
+		int i = start;
+		if (attributePresent) {
+			if (end - start <= ASPATH_ATTRIBUTE.length) {
+				return parseString();
+			}
+			for (int k = 0; k < ASPATH_ATTRIBUTE.length; k++) {
+				if (window.get(start + k) != ASPATH_ATTRIBUTE[k]) {
+					return parseString();
+				}
+			}
+			i += ASPATH_ATTRIBUTE.length;
+			if (!whitespace(window.get(i))) {
+				return parseString();
+			}
+		}
+		length = 0;
+		int tokenStart;
+		long as;
+		while (i < end) {
+			b = window.get(i);
+			if (whitespace(b)) {
+				i++;
+				continue;
+			}
+			tokenStart = i;
+			as = 0;
+			while (i < end && !whitespace(b = window.get(i))) {
+				if (b < '0' || b > '9') {
+					return parseString();
+				}
+				as = as * 10 + (b - '0');
+				i++;
+			}
+
+			// Leading zeros and very long numbers go through the string
+			// validator, so that every AS number is held in canonical form
+
+			if (i - tokenStart > MAX_AS_DIGITS
+					|| (i - tokenStart > 1 && window.get(tokenStart) == '0')) {
+				return parseString();
+			}
+			if (length == ases.length) {
+				ases = Arrays.copyOf(ases, length << 1);
+			}
+			ases[length++] = as;
+		}
+		if (length == 0) {
+			return parseString();
+		}
+		return ACCEPTED;
+	}
+
+	/**
+	 * Validate the current line as a string.
+	 *
+	 * @return status of the line
+	 */
+	private int parseString() {
+		String line = line();
+		if (AsPath.containsAsSet(line)) {
+			return AS_SET;
+		}
+		if (!AsPath.isValid(line, attributePresent)) {
+			validation = AsPath.validate(line, attributePresent);
+			return REJECTED;
+		}
+		String asPath = line;
+		if (attributePresent) {
+			asPath = AsPath.removeAttributePrefix(line);
+		}
+
+		// Split on the same separators as the validator and drop empty
+		// tokens, as the byte scan skips consecutive whitespace
+
+		List<String> asList = AsPath.asTokens(asPath);
+		length = 0;
+		int start;
+		for (String as : asList) {
+			if (length == ases.length) {
+				ases = Arrays.copyOf(ases, length << 1);
+			}
+
+			// Leading zeros do not count towards the digits of the number
+
+			start = 0;
+			while (start < as.length() - 1 && as.charAt(start) == '0') {
+				start++;
+			}
+			try {
+				ases[length++] = AsDictionary.parse(as, start, as.length());
+			} catch (IllegalArgumentException e) {
+				return reject("AS must be a number", line);
+			}
+		}
+		if (length == 0) {
+			return reject("AS path must contain at least 1 AS", line);
+		}
+		return ACCEPTED;
+	}
+
+	/**
+	 * Reject the line with a single validation error.
+	 *
+	 * @param error
+	 * @param line
+	 * @return status of the line
+	 */
+	private int reject(String error, String line) {
+		List<String> errors = new ArrayList<String>(1);
+		errors.add(error);
+		validation = new ValidationResult(errors, AsPath.class.getName(), line);
+		return REJECTED;
+	}
+
+	/**
+	 * Read every AS path into the corpus, mapping each AS to its id. Lines
+	 * that are not valid AS paths, or that contain an AS set, are counted and
+	 * skipped.
+	 *
+	 * @param corpus
+	 * @param dictionary
+	 * @param rejections
+	 * @return number of AS paths that are read
+	 * @throws IOException
+	 */
+	public int read(AsPathCorpus corpus, AsDictionary dictionary,
+			Rejections rejections) throws IOException {
+		int ret = 0;
+		int[] ids = new int[ases.length];
+		while (next()) {
+			if (status == REJECTED) {
+				rejections.reject(validation);
+				continue;
+			}
+			if (status == AS_SET) {
+				rejections.reject(Rejections.AS_SET, line());
+				continue;
+			}
+			if (ids.length < length) {
+				ids = new int[ases.length];
+			}
+			for (int i = 0; i < length; i++) {
+				ids[i] = dictionary.id(ases[i]);
+			}
+			corpus.add(ids, length);
+			ret++;
+		}
+		return ret;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		file.close();
+	}
+
+}
@@ -0,0 +1,111 @@
+package bgpvis.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Events that mark where a run is, so that a slow run can be lined up by
+ * timestamp with GC logs or a flight recording: phase begin and end,
+ * ingestion batches, and long AS paths in top provider scans.
+ * <p>
+ * Each event type is off by default and has a threshold that is read once
+ * from a system property, so a disabled event costs a comparison with a
+ * constant. Events are logged by the {@code bgpvis.events} logger as
+ * key=value pairs, with the wall clock time in milliseconds and the bytes
+ * allocated by the thread so far.
+ */
+public final class Events {
+	private static final Logger log = LoggerFactory.getLogger("bgpvis.events");
+
+	/**
+	 * Phase end events are logged if the phase takes at least this many
+	 * milliseconds, and phase begin events are logged if this is not
+	 * negative. Off by default.
+	 */
+	public static final long PHASE_THRESHOLD_MILLIS = Long.getLong(
+			"bgp.out.phase-event-threshold", -1);
+
+	/**
+	 * An ingestion batch event is logged every this many lines read. Off by
+	 * default.
+	 */
+	public static final long BATCH_SIZE = Long.getLong(
+			"bgp.out.batch-event-size", 0);
+
+	/**
+	 * A path event is logged for each path of at least this many ASes. Off by
+	 * default.
+	 */
+	public static final int PATH_LENGTH_THRESHOLD = Integer.getInteger(
+			"bgp.out.path-event-length", 0);
+
+	private Events() {
+		// Private constructor, not meant to be instantiated
+	}
+
+	/**
+	 * @param phase
+	 */
+	static void phaseBegin(String phase) {
+		if (PHASE_THRESHOLD_MILLIS < 0) {
+			return;
+		}
+		log.info("event=phase-begin phase=\"{}\" thread=\"{}\" time={} allocatedBytes={}",
+				phase, Thread.currentThread()
+					.getName(), System.currentTimeMillis(),
+				Metrics.threadAllocatedBytes());
+	}
+
+	/**
+	 * @param phase
+	 * @param wallNanos
+	 * @param cpuNanos
+	 * @param allocatedBytes
+	 *            bytes allocated by the thread in the phase
+	 * @param recordsIn
+	 * @param recordsOut
+	 */
+	static void phaseEnd(String phase, long wallNanos, long cpuNanos,
+			long allocatedBytes, long recordsIn, long recordsOut) {
+		if (PHASE_THRESHOLD_MILLIS < 0
+				|| wallNanos < PHASE_THRESHOLD_MILLIS * 1000000) {
+			return;
+		}
+		log.info("event=phase-end phase=\"{}\" thread=\"{}\" time={} wallNanos={} cpuNanos={} allocatedBytes={} recordsIn={} recordsOut={}",
+				phase, Thread.currentThread()
+					.getName(), System.currentTimeMillis(), wallNanos,
+				cpuNanos, allocatedBytes, recordsIn, recordsOut);
+	}
+
+	/**
+	 * Ingestion batch of {@link #BATCH_SIZE} lines.
+	 *
+	 * @param lines
+	 *            lines read so far by the reader
+	 * @param wallNanos
+	 *            time to read the batch
+	 */
+	public static void batch(long lines, long wallNanos) {
+		log.info("event=batch thread=\"{}\" time={} lines={} wallNanos={} allocatedBytes={}",
+				Thread.currentThread()
+					.getName(), System.currentTimeMillis(), lines,
+				wallNanos, Metrics.threadAllocatedBytes());
+	}
+
+	/**
+	 * AS path of at least {@link #PATH_LENGTH_THRESHOLD} ASes.
+	 *
+	 * @param method
+	 *            method that scans the path
+	 * @param path
+	 *            path index
+	 * @param length
+	 *            number of ASes
+	 */
+	public static void path(String method, int path, int length) {
+		log.info("event=path method={} thread=\"{}\" time={} path={} length={}",
+				method, Thread.currentThread()
+					.getName(), System.currentTimeMillis(), path, length);
+	}
+
+}
@@ -0,0 +1,268 @@
+package bgpvis.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Strings;
+
+/**
+ * Writes lines to a file as they are produced, through a large buffer on a
+ * file channel, instead of joining them into one string first. Numbers are
+ * formatted straight into the buffer, so AS numbers and counts do not build a
+ * string each.
+ * <p>
+ * Files whose path ends with {@link #GZIP_SUFFIX} are gzipped. The buffer is
+ * direct unless the file is gzipped, because the deflater reads from an
+ * array. Strings are encoded as UTF-8. Not safe to use from several threads.
+ */
+public final class LineWriter implements Closeable, Flushable {
+
+	/**
+	 * Files with this suffix are gzipped
+	 */
+	public static final String GZIP_SUFFIX = ".gz";
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final byte LINE_SEPARATOR = '\n';
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Number of characters of the longest long, with sign
+	 */
+	private static final int MAX_LONG_LENGTH = 20;
+
+	private final FileChannel channel;
+	private final OutputStream gzip;
+	private final ByteBuffer buffer;
+	private long flushed;
+	private boolean lineStarted;
+
+	private LineWriter(FileChannel channel, boolean gzip) throws IOException {
+		this.channel = channel;
+		if (gzip) {
+			this.gzip = new GZIPOutputStream(Channels.newOutputStream(channel),
+					BUFFER_SIZE);
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		} else {
+			this.gzip = null;
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Open a writer on the file, which is gzipped if its path ends with
+	 * {@link #GZIP_SUFFIX}. Caller must close the writer.
+	 *
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineWriter open(String filePath) throws IOException {
+		if (Strings.isNullOrEmpty(filePath)) {
+			throw new IllegalArgumentException(
+					"File path must not be null or empty string.");
+		}
+		return open(filePath, filePath.endsWith(GZIP_SUFFIX));
+	}
+
+	/**
+	 * Open a writer on the file. Caller must close the writer.
+	 *
+	 * @param filePath
+	 * @param gzip
+	 *            true to gzip the file
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineWriter open(String filePath, boolean gzip)
+			throws IOException {
+		if (Strings.isNullOrEmpty(filePath)) {
+			throw new IllegalArgumentException(
+					"File path must not be null or empty string.");
+		}
+		FileChannel channel = FileChannel.open(Paths.get(filePath),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			return new LineWriter(channel, gzip);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param s
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter write(String s) throws IOException {
+		int length = s.length();
+		char c;
+		for (int i = 0; i < length; i++) {
+			c = s.charAt(i);
+
+			// Encode the rest of the string if it is not ASCII
+
+			if (c >= 0x80) {
+				return write(s.substring(i)
+					.getBytes(UTF_8));
+			}
+			if (!buffer.hasRemaining()) {
+				flushBuffer();
+			}
+			buffer.put((byte) c);
+		}
+		return this;
+	}
+
+	/**
+	 * @param c
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter write(char c) throws IOException {
+		if (c >= 0x80) {
+			return write(String.valueOf(c));
+		}
+		if (!buffer.hasRemaining()) {
+			flushBuffer();
+		}
+		buffer.put((byte) c);
+		return this;
+	}
+
+	/**
+	 * Write the decimal digits of the number, without building a string.
+	 *
+	 * @param n
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter write(long n) throws IOException {
+		if (n == Long.MIN_VALUE) {
+			return write(Long.toString(n));
+		}
+		if (buffer.remaining() < MAX_LONG_LENGTH) {
+			flushBuffer();
+		}
+		if (n < 0) {
+			buffer.put((byte) '-');
+			n = -n;
+		}
+		int end = buffer.position() + digits(n);
+		for (int i = end - 1; i >= buffer.position(); i--) {
+			buffer.put(i, (byte) ('0' + n % 10));
+			n /= 10;
+		}
+		buffer.position(end);
+		return this;
+	}
+
+	/**
+	 * @param bytes
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter write(byte[] bytes) throws IOException {
+		int n;
+		for (int i = 0; i < bytes.length; i += n) {
+			if (!buffer.hasRemaining()) {
+				flushBuffer();
+			}
+			n = Math.min(buffer.remaining(), bytes.length - i);
+			buffer.put(bytes, i, n);
+		}
+		return this;
+	}
+
+	/**
+	 * End the current line.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter newLine() throws IOException {
+		if (!buffer.hasRemaining()) {
+			flushBuffer();
+		}
+		buffer.put(LINE_SEPARATOR);
+		return this;
+	}
+
+	/**
+	 * Start a line, after a line separator unless this is the first line
+	 * started, so that lines are joined by line separators without one at the
+	 * end of the file. An empty first line still counts as a line.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public LineWriter nextLine() throws IOException {
+		if (!lineStarted) {
+			lineStarted = true;
+			return this;
+		}
+		return newLine();
+	}
+
+	/**
+	 * Number of bytes written so far, before compression.
+	 *
+	 * @return
+	 */
+	public long bytes() {
+		return flushed + buffer.position();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		if (gzip != null) {
+			gzip.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+			if (gzip != null) {
+				gzip.close();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		flushed += buffer.remaining();
+		if (gzip != null) {
+			gzip.write(buffer.array(), 0, buffer.limit());
+		} else {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		buffer.clear();
+	}
+
+	private static int digits(long n) {
+		int ret = 1;
+		for (long m = n / 10; m > 0; m /= 10) {
+			ret++;
+		}
+		return ret;
+	}
+
+}
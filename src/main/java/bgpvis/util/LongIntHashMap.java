@@ -0,0 +1,188 @@
+package bgpvis.util;
+
+import java.util.Arrays;
+
+/**
+ * Map of primitive long keys to primitive int values, with open addressing and
+ * linear probing. Lookups and updates of existing keys do not allocate.
+ */
+public final class LongIntHashMap {
+
+	/**
+	 * Marks an empty slot. The key itself is held outside of the table.
+	 */
+	private static final long FREE_KEY = Long.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private boolean hasFreeKey;
+	private int freeKeyValue;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            expected number of keys, used for table sizing
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = tableSize(expectedSize);
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int tableSize(int expectedSize) {
+		long required = (long) Math.ceil(Math.max(expectedSize, 2)
+				/ LOAD_FACTOR);
+		if (required > 1 << 30) {
+			throw new IllegalArgumentException(StringUtil.concat(
+					"Expected size is too large [", expectedSize, "]"));
+		}
+		return Integer.highestOneBit((int) required - 1) << 1;
+	}
+
+	/**
+	 * Mix the bits of the key, so that sequential keys spread over the table.
+	 * Based on the finalizer of MurmurHash3.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private static int hash(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	private int slot(long key) {
+		int i = hash(key) & mask;
+		long k;
+		while ((k = keys[i]) != FREE_KEY) {
+			if (k == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -(i + 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(long key) {
+		if (key == FREE_KEY) {
+			return hasFreeKey;
+		}
+		return slot(key) >= 0;
+	}
+
+	/**
+	 * Returns the value of the key, or the default value if the key is not in
+	 * the map.
+	 *
+	 * @param key
+	 * @param defaultValue
+	 * @return
+	 */
+	public int get(long key, int defaultValue) {
+		if (key == FREE_KEY) {
+			return hasFreeKey ? freeKeyValue : defaultValue;
+		}
+		int i = slot(key);
+		if (i < 0) {
+			return defaultValue;
+		}
+		return values[i];
+	}
+
+	/**
+	 * Associate the value with the key, replacing any previous value.
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void put(long key, int value) {
+		if (key == FREE_KEY) {
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				size++;
+			}
+			freeKeyValue = value;
+			return;
+		}
+		int i = slot(key);
+		if (i >= 0) {
+			values[i] = value;
+			return;
+		}
+		insert(-i - 1, key, value);
+	}
+
+	/**
+	 * Add the delta to the value of the key. A key that is not in the map
+	 * starts from zero.
+	 *
+	 * @param key
+	 * @param delta
+	 * @return the new value
+	 */
+	public int addTo(long key, int delta) {
+		if (key == FREE_KEY) {
+			put(key, (hasFreeKey ? freeKeyValue : 0) + delta);
+			return freeKeyValue;
+		}
+		int i = slot(key);
+		if (i >= 0) {
+			values[i] += delta;
+			return values[i];
+		}
+		insert(-i - 1, key, delta);
+		return delta;
+	}
+
+	private void insert(int i, long key, int value) {
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size > (mask + 1) * LOAD_FACTOR) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE_KEY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		int j;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == FREE_KEY) {
+				continue;
+			}
+			j = hash(oldKeys[i]) & mask;
+			while (keys[j] != FREE_KEY) {
+				j = (j + 1) & mask;
+			}
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+package bgpvis.util;
+
+import static bgpvis.util.StringUtil.concat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wall time, CPU time, allocated bytes and record counts of each phase of a
+ * run, written as a JSON file next to the output so that runs can be
+ * compared.
+ * <p>
+ * CPU time and allocated bytes are measured on the thread that runs the
+ * phase. Work that a phase hands over to a thread pool only shows in the
+ * process CPU time of the phase. Values that the JVM does not support are
+ * -1.
+ */
+public final class Metrics {
+
+	/**
+	 * Default metrics file is the output file with this suffix
+	 */
+	public static final String FILE_SUFFIX = ".metrics.json";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+	private static final String INDENT = "  ";
+	private static final String LINE_SEPARATOR = "\n";
+
+	private final String task;
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+	private final long startProcessCpuTime = processCpuTime();
+	private final List<Phase> phases = new ArrayList<Phase>();
+
+	/**
+	 * @param task
+	 *            name of the run, such as the main class
+	 */
+	public Metrics(String task) {
+		this.task = task;
+	}
+
+	/**
+	 * Metrics file of the output file.
+	 *
+	 * @param outFilePath
+	 * @return
+	 */
+	public static String filePath(String outFilePath) {
+		return outFilePath + FILE_SUFFIX;
+	}
+
+	/**
+	 * Start a phase on the current thread. Phases are reported in the order
+	 * that they start.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public synchronized Phase start(String name) {
+		Phase ret = new Phase(name);
+		phases.add(ret);
+		return ret;
+	}
+
+	public synchronized List<Phase> phases() {
+		return new ArrayList<Phase>(phases);
+	}
+
+	/**
+	 * Save the metrics of the phases that are stopped.
+	 *
+	 * @param filePath
+	 * @return
+	 * @throws IOException
+	 */
+	public File write(String filePath) throws IOException {
+		return MyFileWriter.write(toJson(), filePath);
+	}
+
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{')
+			.append(LINE_SEPARATOR);
+		field(sb, 1, "task", quote(task), true);
+		field(sb, 1, "startTimeMillis", startTime, true);
+		field(sb, 1, "wallNanos", System.nanoTime() - startNanos, true);
+		field(sb, 1, "processCpuNanos",
+				elapsed(startProcessCpuTime, processCpuTime()), true);
+		sb.append(INDENT)
+			.append(quote("phases"))
+			.append(": [");
+		boolean first = true;
+		for (Phase phase : phases) {
+			if (!phase.stopped) {
+				continue;
+			}
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append(LINE_SEPARATOR);
+			phase.toJson(sb);
+		}
+		sb.append(LINE_SEPARATOR)
+			.append(INDENT)
+			.append(']')
+			.append(LINE_SEPARATOR)
+			.append('}')
+			.append(LINE_SEPARATOR);
+		return sb.toString();
+	}
+
+	private static void field(StringBuilder sb, int depth, String name,
+			Object value, boolean more) {
+		for (int i = 0; i < depth; i++) {
+			sb.append(INDENT);
+		}
+		sb.append(quote(name))
+			.append(": ")
+			.append(value);
+		if (more) {
+			sb.append(',');
+		}
+		sb.append(LINE_SEPARATOR);
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		char c;
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\')
+					.append(c);
+			} else if (c < ' ') {
+				sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"')
+			.toString();
+	}
+
+	private static long elapsed(long start, long end) {
+		return start < 0 || end < 0 ? -1 : end - start;
+	}
+
+	private static long threadCpuTime() {
+		if (!THREADS.isCurrentThreadCpuTimeSupported()) {
+			return -1;
+		}
+		return THREADS.getCurrentThreadCpuTime();
+	}
+
+	static long threadAllocatedBytes() {
+		if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+		if (!threads.isThreadAllocatedMemorySupported()
+				|| !threads.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return threads.getThreadAllocatedBytes(Thread.currentThread()
+			.getId());
+	}
+
+	private static long processCpuTime() {
+		if (!(OS instanceof com.sun.management.OperatingSystemMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+	}
+
+	/**
+	 * A phase of the run. Record counts are added by the thread that runs the
+	 * phase.
+	 */
+	public static final class Phase {
+		private final String name;
+		private final String thread = Thread.currentThread()
+			.getName();
+		private final long startNanos = System.nanoTime();
+		private final long startCpuTime = threadCpuTime();
+		private final long startAllocatedBytes = threadAllocatedBytes();
+		private final long startProcessCpuTime = processCpuTime();
+		private long wallNanos;
+		private long cpuNanos;
+		private long allocatedBytes;
+		private long processCpuNanos;
+		private long recordsIn;
+		private long recordsOut;
+		private volatile boolean stopped;
+
+		private Phase(String name) {
+			this.name = name;
+			Events.phaseBegin(name);
+		}
+
+		/**
+		 * Add to the number of records that the phase reads.
+		 *
+		 * @param n
+		 * @return
+		 */
+		public Phase in(long n) {
+			recordsIn += n;
+			return this;
+		}
+
+		/**
+		 * Add to the number of records that the phase writes.
+		 *
+		 * @param n
+		 * @return
+		 */
+		public Phase out(long n) {
+			recordsOut += n;
+			return this;
+		}
+
+		/**
+		 * Stop the phase, on the thread that started it.
+		 */
+		public void stop() {
+			if (stopped) {
+				throw new IllegalStateException(concat("Phase [", name,
+						"] is already stopped"));
+			}
+			wallNanos = System.nanoTime() - startNanos;
+			cpuNanos = elapsed(startCpuTime, threadCpuTime());
+			allocatedBytes = elapsed(startAllocatedBytes,
+					threadAllocatedBytes());
+			processCpuNanos = elapsed(startProcessCpuTime, processCpuTime());
+			stopped = true;
+			Events.phaseEnd(name, wallNanos, cpuNanos, allocatedBytes,
+					recordsIn, recordsOut);
+		}
+
+		public String name() {
+			return name;
+		}
+
+		public long wallNanos() {
+			return wallNanos;
+		}
+
+		public long cpuNanos() {
+			return cpuNanos;
+		}
+
+		public long allocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Records read per second of wall time.
+		 *
+		 * @return
+		 */
+		public double throughput() {
+			return wallNanos == 0 ? 0 : recordsIn * 1e9 / wallNanos;
+		}
+
+		private void toJson(StringBuilder sb) {
+			sb.append(INDENT)
+				.append(INDENT)
+				.append('{')
+				.append(LINE_SEPARATOR);
+			field(sb, 3, "name", quote(name), true);
+			field(sb, 3, "thread", quote(thread), true);
+			field(sb, 3, "wallNanos", wallNanos, true);
+			field(sb, 3, "cpuNanos", cpuNanos, true);
+			field(sb, 3, "processCpuNanos", processCpuNanos, true);
+			field(sb, 3, "allocatedBytes", allocatedBytes, true);
+			field(sb, 3, "recordsIn", recordsIn, true);
+			field(sb, 3, "recordsOut", recordsOut, true);
+			field(sb, 3, "recordsPerSecond",
+					String.format(Locale.ROOT, "%.1f", throughput()), false);
+			sb.append(INDENT)
+				.append(INDENT)
+				.append('}');
+		}
+	}
+
+}
@@ -1,28 +1,38 @@
 package bgpvis.util;
 
-import static bgpvis.util.StringUtil.*;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.google.common.base.Strings;
 
 public final class MyFileWriter {
-	private static final Logger log = LoggerFactory.getLogger(MyFileWriter.class);
 
 	private MyFileWriter() {
 		// Private constructor, not meant to be instantiated
 	}
 
+	/**
+	 * Write the lines joined by line separators, one line at a time.
+	 *
+	 * @param lines
+	 * @param filePath
+	 *            gzipped if it ends with {@link LineWriter#GZIP_SUFFIX}
+	 * @return
+	 * @throws IOException
+	 */
 	public static File write(List<String> lines, String filePath)
 			throws IOException {
-		String content = join(lines, "\n");
-		return write(content, filePath);
+		LineWriter out = open(filePath);
+		try {
+			for (String line : lines) {
+				out.nextLine()
+					.write(line);
+			}
+		} finally {
+			out.close();
+		}
+		return new File(filePath);
 	}
 
 	public static File write(String content, String filePath)
@@ -36,18 +46,29 @@ public final class MyFileWriter {
 		return file;
 	}
 
+	/**
+	 * Open a writer on the file, so that lines can be written as soon as
+	 * they are produced instead of being held in memory. Caller must close
+	 * the writer.
+	 *
+	 * @param filePath
+	 *            gzipped if it ends with {@link LineWriter#GZIP_SUFFIX}
+	 * @return
+	 * @throws IOException
+	 */
+	public static LineWriter open(String filePath) throws IOException {
+		return LineWriter.open(filePath);
+	}
+
 	public static void write(String content, File file) throws IOException {
 		if (content == null) {
 			throw new IllegalArgumentException("Content must not be null.");
 		}
-		BufferedWriter bw = null;
+		LineWriter out = open(file.getPath());
 		try {
-			bw = new BufferedWriter(new FileWriter(file));
-			bw.write(content);
+			out.write(content);
 		} finally {
-			if (bw != null) {
-				bw.close();
-			}
+			out.close();
 		}
 	}
 
@@ -0,0 +1,313 @@
+package bgpvis.validation;
+
+import static bgpvis.util.StringUtil.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import bgpvis.util.LineWriter;
+import bgpvis.util.MyFileWriter;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Accounting of input lines that are not accepted, instead of logging each
+ * line: a count per error category, a bounded sample of the distinct lines,
+ * and an optional quarantine file of every line.
+ * <p>
+ * Lines are written to the quarantine file in batches on a background
+ * thread, so a dirty input does not slow down reading. Safe to use from
+ * several reader threads, but each reader thread should count its lines in
+ * its own {@link #chunk()} and {@link #merge(Rejections)} it when done, so
+ * that reader threads do not wait on each other.
+ */
+public final class Rejections implements Closeable {
+
+	/**
+	 * Category of lines that contain an AS set, which are skipped without
+	 * validation.
+	 */
+	public static final String AS_SET = "AS path contains an AS set";
+
+	private static final String MESSAGE_SEPARATOR = "\n\t";
+	private static final int SAMPLE_SIZE = 10;
+	private static final int BATCH_SIZE = 4096;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Each line is sampled by a seeded hash of its content instead of by the
+	 * order it is rejected in, so that the same input logs the same sample on
+	 * any number of reader threads.
+	 */
+	private static final HashFunction HASH = Hashing.murmur3_128(1);
+
+	/**
+	 * Counts in order of category, so that the summary does not depend on
+	 * the order in which several threads reject their lines
+	 */
+	private final Map<String, long[]> counts = new TreeMap<String, long[]>();
+	private final TreeSet<Sample> samples = new TreeSet<Sample>();
+	private long total;
+
+	/**
+	 * Rejections that own the quarantine file, this unless this is a chunk
+	 */
+	private final Rejections root;
+	private final LineWriter quarantine;
+	private final ExecutorService writer;
+	private List<String> batch;
+	private volatile IOException writeError;
+
+	/**
+	 * @param quarantineFilePath
+	 *            file of every line that is not accepted, or null
+	 * @throws IOException
+	 */
+	public Rejections(String quarantineFilePath) throws IOException {
+		root = this;
+		if (quarantineFilePath == null) {
+			quarantine = null;
+			writer = null;
+			return;
+		}
+		quarantine = MyFileWriter.open(quarantineFilePath);
+		writer = Executors.newSingleThreadExecutor();
+		batch = new ArrayList<String>(BATCH_SIZE);
+	}
+
+	private Rejections(Rejections root) {
+		this.root = root;
+		quarantine = root.quarantine;
+		writer = root.writer;
+		if (quarantine != null) {
+			batch = new ArrayList<String>(BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Rejections of one reader thread, that share the quarantine file. Merge
+	 * them with {@link #merge(Rejections)} once the thread is done.
+	 *
+	 * @return
+	 */
+	public Rejections chunk() {
+		return new Rejections(root);
+	}
+
+	/**
+	 * Add the counts and the sample of a chunk, and hand its remaining lines
+	 * over to the quarantine file. The chunk must not be used afterwards.
+	 *
+	 * @param chunk
+	 */
+	public synchronized void merge(Rejections chunk) {
+		if (chunk.root != root) {
+			throw new IllegalArgumentException(
+					"Chunk must share the quarantine file.");
+		}
+		synchronized (chunk) {
+			total += chunk.total;
+			long[] count;
+			for (Map.Entry<String, long[]> e : chunk.counts.entrySet()) {
+				count = counts.get(e.getKey());
+				if (count == null) {
+					count = new long[1];
+					counts.put(e.getKey(), count);
+				}
+				count[0] += e.getValue()[0];
+			}
+			for (Sample sample : chunk.samples) {
+				sample(sample);
+			}
+			if (chunk.batch != null && !chunk.batch.isEmpty()) {
+				chunk.flush();
+			}
+		}
+	}
+
+	/**
+	 * Count a line that failed validation, in the category of its first
+	 * error.
+	 *
+	 * @param validation
+	 */
+	public void reject(ValidationResult validation) {
+		List<String> errors = validation.errors()
+			.get();
+		reject(errors.get(0), String.valueOf(validation.inputValue()));
+	}
+
+	/**
+	 * Count a line in the category, and keep it if it is in the sample or
+	 * there is a quarantine file. The sample does not depend on the order in
+	 * which several threads reject their lines.
+	 *
+	 * @param category
+	 * @param line
+	 */
+	public void reject(String category, String line) {
+
+		// Hash outside the lock
+
+		long key = HASH.hashString(line, UTF_8)
+			.asLong();
+		synchronized (this) {
+			total++;
+			long[] count = counts.get(category);
+			if (count == null) {
+				count = new long[1];
+				counts.put(category, count);
+			}
+			count[0]++;
+			if (samples.size() < SAMPLE_SIZE
+					|| key <= samples.last().key) {
+				sample(new Sample(key, line));
+			}
+			if (quarantine != null) {
+				batch.add(line);
+				if (batch.size() == BATCH_SIZE) {
+					flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bottom-k sample: keep the distinct lines with the smallest hashes.
+	 */
+	private void sample(Sample sample) {
+		if (samples.size() < SAMPLE_SIZE) {
+			samples.add(sample);
+		} else if (sample.compareTo(samples.last()) < 0
+				&& samples.add(sample)) {
+			samples.pollLast();
+		}
+	}
+
+	/**
+	 * Hand the batch over to the background thread.
+	 */
+	private void flush() {
+		final List<String> lines = batch;
+		batch = new ArrayList<String>(BATCH_SIZE);
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String line : lines) {
+						quarantine.write(line)
+							.newLine();
+					}
+				} catch (IOException e) {
+					root.writeError = e;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Number of lines that are not accepted.
+	 *
+	 * @return
+	 */
+	public synchronized long total() {
+		return total;
+	}
+
+	/**
+	 * Number of lines in the category.
+	 *
+	 * @param category
+	 * @return
+	 */
+	public synchronized long count(String category) {
+		long[] count = counts.get(category);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * Write the remaining lines and close the quarantine file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (root != this) {
+			throw new IllegalStateException(
+					"Chunk must be merged instead of closed.");
+		}
+		if (quarantine == null) {
+			return;
+		}
+		try {
+			if (!batch.isEmpty()) {
+				flush();
+			}
+			writer.shutdown();
+			while (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+				// Wait for the background thread to write every batch
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			throw new InterruptedIOException(
+					"Interrupted while writing quarantine file");
+		} finally {
+			writer.shutdownNow();
+			quarantine.close();
+		}
+		if (writeError != null) {
+			throw writeError;
+		}
+	}
+
+	/**
+	 * Summary of the counts per category and the sample lines.
+	 */
+	@Override
+	public synchronized String toString() {
+		List<String> msg = new ArrayList<String>();
+		msg.add(concat("Rejected ", total, " lines"));
+		for (Map.Entry<String, long[]> e : counts.entrySet()) {
+			msg.add(concat(e.getValue()[0], " ", e.getKey()));
+		}
+		if (!samples.isEmpty()) {
+			msg.add(concat("Sample of ", samples.size(), " lines"));
+			for (Sample sample : samples) {
+				msg.add(concat("[", sample.line, "]"));
+			}
+		}
+		return join(msg, MESSAGE_SEPARATOR);
+	}
+
+	/**
+	 * Sampled line, ordered by its hash and then by its content.
+	 */
+	private static final class Sample implements Comparable<Sample> {
+		private final long key;
+		private final String line;
+
+		private Sample(long key, String line) {
+			this.key = key;
+			this.line = line;
+		}
+
+		@Override
+		public int compareTo(Sample o) {
+			if (key != o.key) {
+				return key < o.key ? -1 : 1;
+			}
+			return line.compareTo(o.line);
+		}
+	}
+
+}